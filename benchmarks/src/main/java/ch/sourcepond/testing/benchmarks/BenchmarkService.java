@@ -0,0 +1,9 @@
+package ch.sourcepond.testing.benchmarks;
+
+/**
+ * Service interface stubbed by the benchmarks.
+ */
+public interface BenchmarkService {
+
+	String echo(String pValue);
+}
@@ -0,0 +1,12 @@
+package ch.sourcepond.testing.benchmarks;
+
+/**
+ * Stub implementation of {@link BenchmarkService}.
+ */
+public class BenchmarkServiceImpl implements BenchmarkService {
+
+	@Override
+	public String echo(final String pValue) {
+		return pValue;
+	}
+}
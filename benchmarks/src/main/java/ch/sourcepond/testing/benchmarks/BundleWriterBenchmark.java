@@ -0,0 +1,94 @@
+package ch.sourcepond.testing.benchmarks;
+
+import ch.sourcepond.testing.BundleWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.valueOf;
+import static java.lang.System.getProperty;
+import static java.nio.file.Paths.get;
+
+/**
+ * Measures {@link BundleWriter#writeBundle(String, java.io.InputStream)} and
+ * {@link BundleWriter#getLocation(String)} with several concurrent writers.
+ * Depending on {@link #writerProcesses}, additional {@link ContendingWriter}
+ * processes write to the shared index during the whole trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Threads(4)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BundleWriterBenchmark {
+    private static final String LOOKUP_KEY = "benchmark-lookup";
+    private final String keyPrefix = "benchmark-" + UUID.randomUUID() + "-";
+    private final AtomicLong keys = new AtomicLong();
+    private final List<Process> writers = new ArrayList<>();
+    private byte[] payload;
+
+    @Param({"4096", "262144"})
+    public int bundleSize;
+
+    @Param({"0", "2"})
+    public int writerProcesses;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        payload = new byte[bundleSize];
+        new Random(bundleSize).nextBytes(payload);
+        BundleWriter.writeBundle(LOOKUP_KEY, new ByteArrayInputStream(payload));
+        for (int i = 0; i < writerProcesses; i++) {
+            writers.add(new ProcessBuilder(
+                    get(getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", getProperty("java.class.path"),
+                    ContendingWriter.class.getName(), valueOf(bundleSize))
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        for (final Process writer : writers) {
+            writer.getOutputStream().close();
+        }
+        for (final Process writer : writers) {
+            writer.waitFor();
+        }
+        writers.clear();
+    }
+
+    @Benchmark
+    public void writeBundle() {
+        BundleWriter.writeBundle(keyPrefix + keys.incrementAndGet(), new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public String getLocation() {
+        return BundleWriter.getLocation(LOOKUP_KEY);
+    }
+}
@@ -0,0 +1,45 @@
+package ch.sourcepond.testing.benchmarks;
+
+import ch.sourcepond.testing.BundleWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+
+import static java.lang.Integer.parseInt;
+
+/**
+ * Writes bundles of the size specified as first argument to the shared index
+ * until its standard input is closed. Started by
+ * {@link BundleWriterBenchmark} to contend with the benchmarked process.
+ */
+public final class ContendingWriter {
+    private static volatile boolean running = true;
+
+    private ContendingWriter() {
+        // Main class
+    }
+
+    public static void main(final String[] pArgs) {
+        final Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() != -1) {
+                    // Wait until the benchmark process is gone
+                }
+            } catch (final IOException e) {
+                // Treat like end of input
+            }
+            running = false;
+        });
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        final byte[] payload = new byte[parseInt(pArgs[0])];
+        new Random(payload.length).nextBytes(payload);
+        final String keyPrefix = "contending-" + UUID.randomUUID() + "-";
+        for (long key = 0; running; key++) {
+            BundleWriter.writeBundle(keyPrefix + key, new ByteArrayInputStream(payload));
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package ch.sourcepond.testing.benchmarks;
+
+/**
+ * Classes added to the stub-bundles built by {@link ServiceStubberBenchmark}
+ * through {@link ch.sourcepond.testing.ServiceStubber#addClass(Class)}.
+ */
+final class Fixtures {
+	static final Class<?>[] CLASSES = {
+			C00.class, C01.class, C02.class, C03.class, C04.class,
+			C05.class, C06.class, C07.class, C08.class, C09.class,
+			C10.class, C11.class, C12.class, C13.class, C14.class,
+			C15.class, C16.class, C17.class, C18.class, C19.class,
+			C20.class, C21.class, C22.class, C23.class, C24.class,
+			C25.class, C26.class, C27.class, C28.class, C29.class,
+			C30.class, C31.class, C32.class, C33.class, C34.class,
+			C35.class, C36.class, C37.class, C38.class, C39.class,
+			C40.class, C41.class, C42.class, C43.class, C44.class,
+			C45.class, C46.class, C47.class, C48.class, C49.class
+	};
+
+	private Fixtures() {
+		// No instances
+	}
+
+	public static class C00 {
+		public int value() {
+			return 0;
+		}
+	}
+
+	public static class C01 {
+		public int value() {
+			return 1;
+		}
+	}
+
+	public static class C02 {
+		public int value() {
+			return 2;
+		}
+	}
+
+	public static class C03 {
+		public int value() {
+			return 3;
+		}
+	}
+
+	public static class C04 {
+		public int value() {
+			return 4;
+		}
+	}
+
+	public static class C05 {
+		public int value() {
+			return 5;
+		}
+	}
+
+	public static class C06 {
+		public int value() {
+			return 6;
+		}
+	}
+
+	public static class C07 {
+		public int value() {
+			return 7;
+		}
+	}
+
+	public static class C08 {
+		public int value() {
+			return 8;
+		}
+	}
+
+	public static class C09 {
+		public int value() {
+			return 9;
+		}
+	}
+
+	public static class C10 {
+		public int value() {
+			return 10;
+		}
+	}
+
+	public static class C11 {
+		public int value() {
+			return 11;
+		}
+	}
+
+	public static class C12 {
+		public int value() {
+			return 12;
+		}
+	}
+
+	public static class C13 {
+		public int value() {
+			return 13;
+		}
+	}
+
+	public static class C14 {
+		public int value() {
+			return 14;
+		}
+	}
+
+	public static class C15 {
+		public int value() {
+			return 15;
+		}
+	}
+
+	public static class C16 {
+		public int value() {
+			return 16;
+		}
+	}
+
+	public static class C17 {
+		public int value() {
+			return 17;
+		}
+	}
+
+	public static class C18 {
+		public int value() {
+			return 18;
+		}
+	}
+
+	public static class C19 {
+		public int value() {
+			return 19;
+		}
+	}
+
+	public static class C20 {
+		public int value() {
+			return 20;
+		}
+	}
+
+	public static class C21 {
+		public int value() {
+			return 21;
+		}
+	}
+
+	public static class C22 {
+		public int value() {
+			return 22;
+		}
+	}
+
+	public static class C23 {
+		public int value() {
+			return 23;
+		}
+	}
+
+	public static class C24 {
+		public int value() {
+			return 24;
+		}
+	}
+
+	public static class C25 {
+		public int value() {
+			return 25;
+		}
+	}
+
+	public static class C26 {
+		public int value() {
+			return 26;
+		}
+	}
+
+	public static class C27 {
+		public int value() {
+			return 27;
+		}
+	}
+
+	public static class C28 {
+		public int value() {
+			return 28;
+		}
+	}
+
+	public static class C29 {
+		public int value() {
+			return 29;
+		}
+	}
+
+	public static class C30 {
+		public int value() {
+			return 30;
+		}
+	}
+
+	public static class C31 {
+		public int value() {
+			return 31;
+		}
+	}
+
+	public static class C32 {
+		public int value() {
+			return 32;
+		}
+	}
+
+	public static class C33 {
+		public int value() {
+			return 33;
+		}
+	}
+
+	public static class C34 {
+		public int value() {
+			return 34;
+		}
+	}
+
+	public static class C35 {
+		public int value() {
+			return 35;
+		}
+	}
+
+	public static class C36 {
+		public int value() {
+			return 36;
+		}
+	}
+
+	public static class C37 {
+		public int value() {
+			return 37;
+		}
+	}
+
+	public static class C38 {
+		public int value() {
+			return 38;
+		}
+	}
+
+	public static class C39 {
+		public int value() {
+			return 39;
+		}
+	}
+
+	public static class C40 {
+		public int value() {
+			return 40;
+		}
+	}
+
+	public static class C41 {
+		public int value() {
+			return 41;
+		}
+	}
+
+	public static class C42 {
+		public int value() {
+			return 42;
+		}
+	}
+
+	public static class C43 {
+		public int value() {
+			return 43;
+		}
+	}
+
+	public static class C44 {
+		public int value() {
+			return 44;
+		}
+	}
+
+	public static class C45 {
+		public int value() {
+			return 45;
+		}
+	}
+
+	public static class C46 {
+		public int value() {
+			return 46;
+		}
+	}
+
+	public static class C47 {
+		public int value() {
+			return 47;
+		}
+	}
+
+	public static class C48 {
+		public int value() {
+			return 48;
+		}
+	}
+
+	public static class C49 {
+		public int value() {
+			return 49;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package ch.sourcepond.testing.benchmarks;
+
+import ch.sourcepond.testing.OptionsHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.exam.Option;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static java.lang.String.format;
+import static java.lang.System.getProperty;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.Files.setLastModifiedTime;
+import static java.nio.file.Paths.get;
+
+/**
+ * Measures the assembly of {@link OptionsHelper#defaultOptions(String, String...)}
+ * and {@link OptionsHelper#provisionBundlesFromUserDir(String...)} on a
+ * synthetic directory of bundles which import each other in a chain. The
+ * project versions used by the options are declared in the
+ * {@code META-INF/maven/dependencies.properties} of this module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class OptionsHelperBenchmark {
+    private String[] directory;
+    private Path firstJar;
+    private long touched;
+
+    @Param({"10", "200"})
+    public int jars;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = new String[]{"target", "benchmark-bundles", String.valueOf(jars)};
+        final Path dir = createDirectories(get(getProperty("user.dir"), directory));
+        for (int i = 0; i < jars; i++) {
+            final Manifest manifest = new Manifest();
+            final Attributes attributes = manifest.getMainAttributes();
+            attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            attributes.putValue("Bundle-SymbolicName", format("benchmark.bundle%d", i));
+            attributes.putValue("Bundle-Version", "1.0.0");
+            attributes.putValue("Export-Package", format("benchmark.p%d;version=\"1.0.0\"", i));
+            if (i > 0) {
+                attributes.putValue("Import-Package", format("benchmark.p%d;version=\"[1,2)\"", i - 1));
+            }
+            final Path jar = dir.resolve(format("bundle-%03d.jar", jars - i));
+            try (final OutputStream out = newOutputStream(jar)) {
+                new JarOutputStream(out, manifest).close();
+            }
+            if (firstJar == null) {
+                firstJar = jar;
+            }
+        }
+        touched = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public Option defaultOptions() {
+        return OptionsHelper.defaultOptions("ch.sourcepond.bench.example", "ch.sourcepond.bench.dependency");
+    }
+
+    @Benchmark
+    public Option provisionBundlesFromUserDirUnchanged() {
+        return OptionsHelper.provisionBundlesFromUserDir(directory);
+    }
+
+    @Benchmark
+    public Option provisionBundlesFromUserDirChanged() throws IOException {
+        // Invalidates the cached scan of the directory
+        setLastModifiedTime(firstJar, FileTime.fromMillis(++touched));
+        return OptionsHelper.provisionBundlesFromUserDir(directory);
+    }
+}
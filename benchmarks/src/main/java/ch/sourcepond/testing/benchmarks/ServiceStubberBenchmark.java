@@ -0,0 +1,60 @@
+package ch.sourcepond.testing.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.exam.Option;
+
+import ch.sourcepond.testing.OptionsHelper;
+import ch.sourcepond.testing.ServiceStubber;
+
+/**
+ * Measures building stub-bundles with {@link ServiceStubber#build()}, both when
+ * the bundle is taken from the stub-bundle cache and when it has to be built
+ * with bnd. The forked JVM uses its own cache directory below {@code target}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Dch.sourcepond.testing.stubCache.dir=target/stub-cache-benchmark")
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ServiceStubberBenchmark {
+	// The cache directory survives runs, so cache misses need a per-run prefix
+	private final String noncePrefix = UUID.randomUUID() + "-";
+	private final AtomicLong nonce = new AtomicLong();
+
+	@Param({ "1", "10", "50" })
+	public int extraClasses;
+
+	private ServiceStubber<BenchmarkService> stubber() {
+		final ServiceStubber<BenchmarkService> stubber = OptionsHelper.stubService(BenchmarkService.class)
+				.withImpl(BenchmarkServiceImpl.class);
+		for (int i = 0; i < extraClasses; i++) {
+			stubber.addClass(Fixtures.CLASSES[i]);
+		}
+		return stubber;
+	}
+
+	@Benchmark
+	public Option buildCacheHit() throws Exception {
+		return stubber().build();
+	}
+
+	@Benchmark
+	public Option buildCacheMiss() throws Exception {
+		// A unique property forces a new cache key
+		return stubber().addProperty("nonce", noncePrefix + nonce.incrementAndGet()).build();
+	}
+}
@@ -0,0 +1,94 @@
+package ch.sourcepond.testing;
+
+import org.ops4j.pax.exam.Option;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Integer.getInteger;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+
+/**
+ * Bounded pool of daemon threads on which options are assembled
+ * asynchronously. The number of threads is read from the system property
+ * {@value #THREADS_PROPERTY} and defaults to the number of available
+ * processors. Tasks running on the pool never wait for other tasks of the
+ * pool; futures are only combined, so the pool cannot dead-lock itself.
+ */
+final class AsyncOptions {
+    static final String THREADS_PROPERTY = "ch.sourcepond.testing.asyncThreads";
+    private static final ExecutorService EXECUTOR;
+
+    static {
+        final int threads = Math.max(1, getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        final AtomicInteger number = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, "AsyncOptions-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        EXECUTOR = executor;
+    }
+
+    private AsyncOptions() {
+        // No instances
+    }
+
+    /**
+     * Runs the task specified on the shared pool. Checked exceptions thrown
+     * by the task complete the future exceptionally.
+     */
+    static <T> CompletableFuture<T> supply(final Callable<T> pTask) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return pTask.call();
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /**
+     * Combines the futures specified into a composite option which keeps the
+     * order of the futures.
+     */
+    static CompletableFuture<Option> all(final List<CompletableFuture<Option>> pOptions) {
+        return CompletableFuture.allOf(pOptions.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            final Option[] options = new Option[pOptions.size()];
+            for (int i = 0; i < options.length; i++) {
+                options[i] = pOptions.get(i).join();
+            }
+            return composite(options);
+        });
+    }
+
+    /**
+     * Waits for all futures specified and returns their options as composite.
+     * If a future failed, its original exception is re-thrown.
+     */
+    static Option join(final List<CompletableFuture<Option>> pOptions) throws Exception {
+        try {
+            return all(pOptions).join();
+        } catch (final CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -4,14 +4,46 @@ import org.junit.rules.TestRule;
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static java.lang.Thread.currentThread;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.*;
 
 /**
  * Rule which sets the classloader of the the test-bundle as context classloader.
  * After evaluation, the original classloader is being restored.
+ *
+ * <p>Tasks which are handed over to other threads can be wrapped with
+ * {@link #wrap(Runnable)} or {@link #wrap(Callable)}, or be run on threads
+ * created by {@link #newThreadFactory()}, {@link #newVirtualThreadFactory()} or
+ * an executor returned by {@link #wrap(ExecutorService)}; those threads see the
+ * classloader of the test-bundle as context classloader too. Executors wrapped
+ * on the thread evaluating a test are shut down as soon as that evaluation has
+ * finished. Executors wrapped on any other thread are shut down as soon as the
+ * last concurrently running test method using this rule has been evaluated.
+ *
+ * <p>The rule is safe to use when test methods are executed in parallel, also
+ * when it is shared as class rule.
  */
 public class BundleContextClassLoaderRule implements TestRule {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+    private final Set<ExecutorService> executors = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<List<ExecutorService>> evaluationExecutors = new ThreadLocal<>();
+    private final Object evaluationsLock = new Object();
+    private int evaluations;
+    private final AtomicInteger threadNumber = new AtomicInteger();
     private final Object test;
 
     public BundleContextClassLoaderRule(final Object pTest) {
@@ -19,18 +51,205 @@ public class BundleContextClassLoaderRule implements TestRule {
         test = pTest;
     }
 
+    /**
+     * @return Classloader of the test-bundle, never {@code null}
+     */
+    public ClassLoader getClassLoader() {
+        return test.getClass().getClassLoader();
+    }
+
+    /**
+     * Wraps the task specified so that it runs with the classloader of the
+     * test-bundle as context classloader, regardless of the thread executing it.
+     */
+    public Runnable wrap(final Runnable pTask) {
+        assertNotNull("Task is null", pTask);
+        final ClassLoader loader = getClassLoader();
+        return () -> {
+            final ClassLoader origin = currentThread().getContextClassLoader();
+            currentThread().setContextClassLoader(loader);
+            try {
+                pTask.run();
+            } finally {
+                currentThread().setContextClassLoader(origin);
+            }
+        };
+    }
+
+    /**
+     * Wraps the task specified so that it runs with the classloader of the
+     * test-bundle as context classloader, regardless of the thread executing it.
+     */
+    public <T> Callable<T> wrap(final Callable<T> pTask) {
+        assertNotNull("Task is null", pTask);
+        final ClassLoader loader = getClassLoader();
+        return () -> {
+            final ClassLoader origin = currentThread().getContextClassLoader();
+            currentThread().setContextClassLoader(loader);
+            try {
+                return pTask.call();
+            } finally {
+                currentThread().setContextClassLoader(origin);
+            }
+        };
+    }
+
+    /**
+     * Wraps the executor specified so that every task it executes sees the
+     * classloader of the test-bundle as context classloader. The executor
+     * is shut down by this rule after evaluation.
+     */
+    public ExecutorService wrap(final ExecutorService pExecutor) {
+        assertNotNull("Executor is null", pExecutor);
+        final ExecutorService executor = new ContextExecutorService(this, pExecutor);
+        final List<ExecutorService> owned = evaluationExecutors.get();
+        if (owned == null) {
+            executors.add(executor);
+        } else {
+            owned.add(executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Creates a fixed thread pool whose threads have been created through
+     * {@link #newThreadFactory()}. The pool is shut down by this rule after
+     * evaluation.
+     */
+    public ExecutorService newExecutor(final int pThreads) {
+        assertTrue("Number of threads must be positive", pThreads > 0);
+        return wrap(newFixedThreadPool(pThreads, newThreadFactory()));
+    }
+
+    /**
+     * @return Factory of daemon threads which have the classloader of the
+     * test-bundle set as context classloader.
+     */
+    public ThreadFactory newThreadFactory() {
+        final ClassLoader loader = getClassLoader();
+        final String prefix = test.getClass().getSimpleName() + "-";
+        return r -> {
+            final Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(loader);
+            return thread;
+        };
+    }
+
+    /**
+     * @return Factory of virtual threads which run their tasks with the
+     * classloader of the test-bundle as context classloader. If virtual threads
+     * are not supported by the running JVM, the factory returned by
+     * {@link #newThreadFactory()} is used instead.
+     */
+    public ThreadFactory newVirtualThreadFactory() {
+        final ThreadFactory factory = virtualThreadFactory();
+        if (factory == null) {
+            return newThreadFactory();
+        }
+        return r -> factory.newThread(wrap(r));
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Object builder = ofVirtual.invoke(null);
+            final Method factory = ofVirtual.getReturnType().getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void shutdownExecutors(final List<ExecutorService> pExecutors) throws InterruptedException {
+        for (final ExecutorService executor : pExecutors) {
+            executor.shutdown();
+        }
+        for (final ExecutorService executor : pExecutors) {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, SECONDS)) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
     public Statement apply(final Statement base, final Description description) {
         return new Statement() {
             @Override
             public void evaluate() throws Throwable {
                 final ClassLoader origin = currentThread().getContextClassLoader();
-                currentThread().setContextClassLoader(test.getClass().getClassLoader());
+                final List<ExecutorService> enclosing = evaluationExecutors.get();
+                final List<ExecutorService> owned = new ArrayList<>();
+                currentThread().setContextClassLoader(getClassLoader());
+                evaluationExecutors.set(owned);
+                synchronized (evaluationsLock) {
+                    evaluations++;
+                }
                 try {
                     base.evaluate();
                 } finally {
                     currentThread().setContextClassLoader(origin);
+                    if (enclosing == null) {
+                        evaluationExecutors.remove();
+                    } else {
+                        evaluationExecutors.set(enclosing);
+                    }
+
+                    // Executors wrapped on other threads cannot be attributed to an evaluation;
+                    // they are only drained together with the last evaluation, under the same lock
+                    // a concurrently starting evaluation needs to register itself.
+                    final List<ExecutorService> stopped = new ArrayList<>(owned);
+                    synchronized (evaluationsLock) {
+                        if (--evaluations == 0) {
+                            for (final ExecutorService executor : executors) {
+                                if (executors.remove(executor)) {
+                                    stopped.add(executor);
+                                }
+                            }
+                        }
+                    }
+                    shutdownExecutors(stopped);
                 }
             }
         };
     }
+
+    private static class ContextExecutorService extends AbstractExecutorService {
+        private final BundleContextClassLoaderRule rule;
+        private final ExecutorService delegate;
+
+        ContextExecutorService(final BundleContextClassLoaderRule pRule, final ExecutorService pDelegate) {
+            rule = pRule;
+            delegate = pDelegate;
+        }
+
+        @Override
+        public void execute(final Runnable pCommand) {
+            delegate.execute(rule.wrap(pCommand));
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long pTimeout, final TimeUnit pUnit) throws InterruptedException {
+            return delegate.awaitTermination(pTimeout, pUnit);
+        }
+    }
 }
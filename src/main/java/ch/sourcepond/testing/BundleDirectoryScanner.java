@@ -0,0 +1,185 @@
+package ch.sourcepond.testing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.readAttributes;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Scans a directory for OSGi bundles. Manifests are read in parallel, jars
+ * which are no bundles are skipped and bundles with the same symbolic name and
+ * version (compared in canonical form, so {@code 1.0} equals {@code 1.0.0})
+ * are provisioned only once. The result is ordered so that exporting
+ * bundles come before the bundles importing their packages. Manifests and scan
+ * results are cached for the lifetime of the JVM and are only re-read if the
+ * size or modification time of a jar changes.
+ */
+final class BundleDirectoryScanner {
+    private static final ConcurrentMap<Path, BundleInfo> MANIFESTS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Path, Scan> SCANS = new ConcurrentHashMap<>();
+
+    private BundleDirectoryScanner() {
+        // No instances
+    }
+
+    /**
+     * Information about a single jar of the scanned directory.
+     */
+    private static final class BundleInfo {
+        final Path jar;
+        final String stamp;
+        final String symbolicName;
+        final String version;
+        final List<String> exports;
+        final List<String> imports;
+
+        BundleInfo(final Path pJar, final String pStamp, final Manifest pManifest) {
+            jar = pJar;
+            stamp = pStamp;
+            final Attributes attributes = pManifest == null ? new Attributes() : pManifest.getMainAttributes();
+            symbolicName = ManifestHeaders.value(attributes.getValue("Bundle-SymbolicName"));
+            version = ManifestHeaders.version(attributes.getValue("Bundle-Version"));
+            exports = ManifestHeaders.packageNames(attributes.getValue("Export-Package"));
+            imports = ManifestHeaders.packageNames(attributes.getValue("Import-Package"));
+        }
+
+        boolean isBundle() {
+            return symbolicName != null && !symbolicName.isEmpty();
+        }
+    }
+
+    /**
+     * Cached result of a directory scan.
+     */
+    private static final class Scan {
+        final Map<Path, String> stamps;
+        final List<Path> bundles;
+
+        Scan(final Map<Path, String> pStamps, final List<Path> pBundles) {
+            stamps = pStamps;
+            bundles = pBundles;
+        }
+    }
+
+    /**
+     * Scans the directory specified.
+     *
+     * @param pDirectory Directory to scan, must not be {@code null}
+     * @return Bundles in provisioning order, never {@code null}
+     */
+    static List<Path> scan(final Path pDirectory) {
+        final Map<Path, String> stamps = new LinkedHashMap<>();
+        try (final DirectoryStream<Path> stream = newDirectoryStream(pDirectory, entry -> entry.getFileName().toString().endsWith(".jar"))) {
+            final List<Path> jars = new ArrayList<>();
+            stream.forEach(jars::add);
+            jars.sort(comparing(Path::toString));
+            for (final Path jar : jars) {
+                stamps.put(jar, stamp(jar));
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final Scan cached = SCANS.get(pDirectory);
+        final boolean hit = cached != null && cached.stamps.equals(stamps);
+        SetupInstrumentation.cacheAccessed(SetupStage.BUNDLE_SCAN, hit);
+        if (hit) {
+            return cached.bundles;
+        }
+
+        final long start = SetupInstrumentation.start();
+
+        final List<BundleInfo> infos = stamps.entrySet().parallelStream()
+                .map(e -> manifest(e.getKey(), e.getValue()))
+                .filter(BundleInfo::isBundle)
+                .collect(toList());
+
+        final List<Path> bundles = Collections.unmodifiableList(order(deduplicate(infos)));
+        SCANS.put(pDirectory, new Scan(stamps, bundles));
+        SetupInstrumentation.completed(SetupStage.BUNDLE_SCAN, pDirectory.toString(), start);
+        return bundles;
+    }
+
+    private static String stamp(final Path pJar) throws IOException {
+        final BasicFileAttributes attributes = readAttributes(pJar, BasicFileAttributes.class);
+        return attributes.size() + "@" + attributes.lastModifiedTime().toMillis();
+    }
+
+    private static BundleInfo manifest(final Path pJar, final String pStamp) {
+        final BundleInfo cached = MANIFESTS.get(pJar);
+        if (cached != null && Objects.equals(cached.stamp, pStamp)) {
+            return cached;
+        }
+        Manifest manifest;
+        try (final JarFile jar = new JarFile(pJar.toFile())) {
+            manifest = jar.getManifest();
+        } catch (final IOException e) {
+            // Not a valid jar; will be skipped
+            manifest = null;
+        }
+        final BundleInfo info = new BundleInfo(pJar, pStamp, manifest);
+        MANIFESTS.put(pJar, info);
+        return info;
+    }
+
+    private static List<BundleInfo> deduplicate(final List<BundleInfo> pInfos) {
+        final Map<String, BundleInfo> unique = new LinkedHashMap<>();
+        for (final BundleInfo info : pInfos) {
+            unique.putIfAbsent(info.symbolicName + ";" + info.version, info);
+        }
+        return new ArrayList<>(unique.values());
+    }
+
+    /**
+     * Orders the bundles specified so that every bundle comes after the
+     * bundles exporting the packages it imports. Cycles are broken in file
+     * name order.
+     */
+    private static List<Path> order(final List<BundleInfo> pInfos) {
+        final Map<String, List<BundleInfo>> exporters = new HashMap<>();
+        for (final BundleInfo info : pInfos) {
+            for (final String pkg : info.exports) {
+                exporters.computeIfAbsent(pkg, k -> new ArrayList<>()).add(info);
+            }
+        }
+
+        final List<Path> ordered = new ArrayList<>(pInfos.size());
+        final Set<BundleInfo> visited = new HashSet<>();
+        for (final BundleInfo info : pInfos) {
+            visit(info, exporters, visited, ordered);
+        }
+        return ordered;
+    }
+
+    private static void visit(final BundleInfo pInfo, final Map<String, List<BundleInfo>> pExporters,
+                              final Set<BundleInfo> pVisited, final List<Path> pOrdered) {
+        if (pVisited.add(pInfo)) {
+            for (final String pkg : pInfo.imports) {
+                for (final BundleInfo exporter : pExporters.getOrDefault(pkg, Collections.emptyList())) {
+                    visit(exporter, pExporters, pVisited, pOrdered);
+                }
+            }
+            pOrdered.add(pInfo.jar);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package ch.sourcepond.testing;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+import static java.lang.Long.getLong;
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <p>
+ * Append-only log which maps bundle keys to their locations. The log starts
+ * with a header (magic number, format version and a random generation number
+ * which changes with every replacement of the log), followed by records with
+ * the layout
+ * </p>
+ * <pre>
+ * int    length of the record body
+ * int    CRC-32 of the record body
+ * long   timestamp (millis) of the record
+ * int    length of the key, followed by the UTF-8 encoded key
+ * int    length of the location, followed by the UTF-8 encoded location
+ * </pre>
+ * <p>
+ * Writers append records under an exclusive OS lock on a separate lock file.
+ * Readers read only the part of the log which has been appended since their
+ * last read and keep all entries in a hash map; a later record for the same
+ * key overrides an earlier one. If the generation in the header of the opened
+ * log differs from the one read before, the log has been replaced; the whole
+ * log is then read into a new map which replaces the old one, so concurrent
+ * lookups never see an empty map. Reading stops at the first record which is
+ * incomplete or whose CRC does not match; a record which is still being
+ * written is read on a later refresh, and a record torn by a crashed writer is
+ * truncated by the next writer.
+ * </p>
+ * <p>
+ * The log is bounded: it is compacted when an append would let it grow beyond
+ * {@value #MAX_SIZE_PROPERTY} bytes (default 4 MiB), when it contains a record
+ * older than {@value #MAX_AGE_PROPERTY} milliseconds (default one day), or when
+ * its header is invalid. Compaction keeps only the latest record per key,
+ * drops expired records and records of {@code file:} locations which no
+ * longer exist, and atomically replaces the log with a new generation.
+ * </p>
+ */
+final class BundleIndex {
+    static final String MAX_SIZE_PROPERTY = "ch.sourcepond.testing.bundleIndex.maxSize";
+    static final String MAX_AGE_PROPERTY = "ch.sourcepond.testing.bundleIndex.maxAge";
+    private static final long DEFAULT_MAX_SIZE = 4L * 1024L * 1024L;
+    private static final long DEFAULT_MAX_AGE = 24L * 60L * 60L * 1000L;
+    private static final byte[] MAGIC = {'B', 'I', 'D', 'X', 0, 0, 0, 3};
+    private static final int HEADER_SIZE = MAGIC.length + 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private volatile ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Path file;
+    private final Path lockFile;
+    private final long maxSize;
+    private final long maxAge;
+    private long generation;
+    private long position;
+    private long oldest = Long.MAX_VALUE;
+
+    BundleIndex(final Path pFile) {
+        this(pFile, getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE), getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE));
+    }
+
+    BundleIndex(final Path pFile, final long pMaxSize, final long pMaxAge) {
+        file = pFile;
+        lockFile = pFile.resolveSibling(pFile.getFileName() + ".lock");
+        maxSize = pMaxSize;
+        maxAge = pMaxAge;
+    }
+
+    /**
+     * A single entry of the index.
+     */
+    static final class Entry {
+        final String location;
+        final long timestamp;
+
+        Entry(final String pLocation, final long pTimestamp) {
+            location = pLocation;
+            timestamp = pTimestamp;
+        }
+    }
+
+    /**
+     * Returns the entry for the key specified. If the key is unknown, the
+     * records appended since the last read are read first.
+     *
+     * @return Entry or {@code null} if no such key is registered
+     */
+    Entry get(final String pKey) throws IOException {
+        Entry entry = entries.get(pKey);
+        if (entry == null) {
+            refresh();
+            entry = entries.get(pKey);
+        }
+        return entry;
+    }
+
+    synchronized void refresh() throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, READ)) {
+            read(channel);
+        } catch (final NoSuchFileException e) {
+            // Nothing has been written yet
+        }
+    }
+
+    /**
+     * Reads all valid records appended since the last read.
+     *
+     * @return {@code true} if the log has a valid header or is empty
+     */
+    private boolean read(final FileChannel pChannel) throws IOException {
+        final long size = pChannel.size();
+        if (size == 0) {
+            if (position != 0) {
+                // Deleted and created again
+                entries = new ConcurrentHashMap<>();
+                position = 0;
+                oldest = Long.MAX_VALUE;
+            }
+            return true;
+        }
+        if (size < HEADER_SIZE) {
+            // Torn header
+            return false;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(pChannel, header, 0);
+        if (!Arrays.equals(MAGIC, Arrays.copyOf(header.array(), MAGIC.length))) {
+            return false;
+        }
+        final long current = header.getLong(MAGIC.length);
+        ConcurrentMap<String, Entry> target = entries;
+        if (position == 0 || current != generation || size < position) {
+            // First read, or the log has been replaced in the meantime
+            target = new ConcurrentHashMap<>();
+            generation = current;
+            position = HEADER_SIZE;
+            oldest = Long.MAX_VALUE;
+        }
+        if (size > position) {
+            final ByteBuffer tail = ByteBuffer.allocate((int) (size - position));
+            readFully(pChannel, tail, position);
+            tail.flip();
+            readRecords(tail, target);
+        }
+        entries = target;
+        return true;
+    }
+
+    private static void readFully(final FileChannel pChannel, final ByteBuffer pBuffer, final long pOffset)
+            throws IOException {
+        long offset = pOffset;
+        while (pBuffer.hasRemaining()) {
+            final int read = pChannel.read(pBuffer, offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+    }
+
+    private void readRecords(final ByteBuffer pBuffer, final Map<String, Entry> pTarget) {
+        final CRC32 crc = new CRC32();
+        while (pBuffer.remaining() >= RECORD_HEADER_SIZE) {
+            final int start = pBuffer.position();
+            final int length = pBuffer.getInt(start);
+            final int checksum = pBuffer.getInt(start + 4);
+            if (length <= 0 || pBuffer.remaining() - RECORD_HEADER_SIZE < length) {
+                break;
+            }
+            crc.reset();
+            crc.update(pBuffer.array(), start + RECORD_HEADER_SIZE, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            pBuffer.position(start + RECORD_HEADER_SIZE);
+            final long timestamp = pBuffer.getLong();
+            final String key = readString(pBuffer);
+            pTarget.put(key, new Entry(readString(pBuffer), timestamp));
+            oldest = Math.min(oldest, timestamp);
+            pBuffer.position(start + RECORD_HEADER_SIZE + length);
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private static String readString(final ByteBuffer pBuffer) {
+        final byte[] value = new byte[pBuffer.getInt()];
+        pBuffer.get(value);
+        return new String(value, UTF_8);
+    }
+
+    /**
+     * Appends all entries specified with a single write.
+     */
+    void append(final Map<String, Entry> pEntries) throws IOException {
+        final ByteBuffer records = encode(pEntries);
+        synchronized (this) {
+            try (final FileChannel lockChannel = FileChannel.open(lockFile, CREATE, WRITE);
+                 final FileLock lock = lockChannel.lock();
+                 final FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+                final boolean valid = read(channel);
+                if (!valid || position + records.remaining() > maxSize || oldest < currentTimeMillis() - maxAge) {
+                    compact(valid, pEntries);
+                } else {
+                    if (position == 0) {
+                        writeFully(channel, header(), 0);
+                        position = HEADER_SIZE;
+                    }
+                    // Drops a record torn by a crashed writer
+                    channel.truncate(position);
+                    writeFully(channel, records, position);
+                }
+            }
+        }
+        refresh();
+    }
+
+    /**
+     * Replaces the log with the live entries and the entries specified.
+     */
+    private void compact(final boolean pValid, final Map<String, Entry> pEntries) throws IOException {
+        final long oldest = currentTimeMillis() - maxAge;
+        final Map<String, Entry> live = new LinkedHashMap<>();
+        if (pValid) {
+            for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().timestamp >= oldest && isAvailable(entry.getValue().location)) {
+                    live.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        live.putAll(pEntries);
+
+        final Path tmp = createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (final FileChannel channel = FileChannel.open(tmp, WRITE)) {
+                final ByteBuffer header = header();
+                writeFully(channel, header, 0);
+                writeFully(channel, encode(live), HEADER_SIZE);
+                channel.force(false);
+            }
+            try {
+                move(tmp, file, ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                move(tmp, file, REPLACE_EXISTING);
+            }
+        } finally {
+            deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return Header of a new generation of the log
+     */
+    private static ByteBuffer header() {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).putLong(ThreadLocalRandom.current().nextLong()).flip();
+        return header;
+    }
+
+    private static void writeFully(final FileChannel pChannel, final ByteBuffer pBuffer, final long pOffset)
+            throws IOException {
+        long offset = pOffset;
+        while (pBuffer.hasRemaining()) {
+            offset += pChannel.write(pBuffer, offset);
+        }
+    }
+
+    private static boolean isAvailable(final String pLocation) {
+        if (!pLocation.startsWith("file:")) {
+            return true;
+        }
+        try {
+            return exists(Paths.get(URI.create(pLocation)));
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer encode(final Map<String, Entry> pEntries) {
+        int size = 0;
+        for (final Map.Entry<String, Entry> entry : pEntries.entrySet()) {
+            size += RECORD_HEADER_SIZE + bodyLength(entry.getKey(), entry.getValue());
+        }
+
+        final ByteBuffer records = ByteBuffer.allocate(size);
+        final CRC32 crc = new CRC32();
+        for (final Map.Entry<String, Entry> entry : pEntries.entrySet()) {
+            final byte[] key = entry.getKey().getBytes(UTF_8);
+            final byte[] location = entry.getValue().location.getBytes(UTF_8);
+            final int start = records.position();
+            final int length = bodyLength(entry.getKey(), entry.getValue());
+            records.position(start + RECORD_HEADER_SIZE);
+            records.putLong(entry.getValue().timestamp);
+            records.putInt(key.length).put(key);
+            records.putInt(location.length).put(location);
+            crc.reset();
+            crc.update(records.array(), start + RECORD_HEADER_SIZE, length);
+            records.putInt(start, length);
+            records.putInt(start + 4, (int) crc.getValue());
+        }
+        records.flip();
+        return records;
+    }
+
+    private static int bodyLength(final String pKey, final Entry pEntry) {
+        return 8 + 4 + pKey.getBytes(UTF_8).length + 4 + pEntry.location.getBytes(UTF_8).length;
+    }
+}
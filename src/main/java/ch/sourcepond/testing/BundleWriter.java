@@ -1,58 +1,194 @@
 package ch.sourcepond.testing;
 
+import org.ops4j.pax.exam.Option;
+
 import java.io.*;
-import java.util.Properties;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import static java.lang.Long.getLong;
+import static java.lang.System.currentTimeMillis;
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.size;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.singletonMap;
 import static org.junit.Assert.*;
+import static org.ops4j.pax.exam.CoreOptions.provision;
 
 /**
- * Created by rolandhauser on 23.02.17.
+ * Writes bundles to temporary files (or to the {@link InMemoryBundleStore} if
+ * it is enabled) and registers their locations in a
+ * {@link BundleIndex} which is shared by all JVMs on this machine, for instance
+ * forked surefire JVMs and the test-container. Bundles registered by another
+ * JVM become visible as soon as they have been appended to the index. Bundles
+ * held by the {@link InMemoryBundleStore} are only valid while the writing JVM
+ * runs; their locations are kept in a per-JVM map and never appended to the
+ * shared index. If the system property
+ * {@value JarNormalizer#BUNDLE_WRITER_PROPERTY} is {@code true}, bundles are
+ * normalized by the {@link JarNormalizer} before they are written.
  */
 public class BundleWriter {
-    private static final File BUNDLES_FILE = new File(System.getProperty("java.io.tmpdir"), "ch.sourcepond.testing.bundles.properties");
-    private static Properties PROPS = loadProperties();
+    static final String CATALOGUE_MAX_SIZE_PROPERTY = "ch.sourcepond.testing.catalogue.maxSize";
+    private static final long DEFAULT_CATALOGUE_MAX_SIZE = 256L * 1024L * 1024L;
+    /**
+     * The index is shared by all JVMs and must outlive each of them; it is
+     * created on the first append.
+     */
+    private static final BundleIndex INDEX = new BundleIndex(
+            new File(System.getProperty("java.io.tmpdir"), "ch.sourcepond.testing.bundles.idx").toPath());
 
-    private static Properties loadProperties() {
-        try {
-            if (!BUNDLES_FILE.exists()) {
-                BUNDLES_FILE.createNewFile();
-                BUNDLES_FILE.deleteOnExit();
-            }
+    /**
+     * Locations of bundles held by the {@link InMemoryBundleStore}, mapped to their keys.
+     */
+    private static final ConcurrentMap<String, String> IN_MEMORY = new ConcurrentHashMap<>();
+
+    /**
+     * Catalogue bundles are registered in the shared index, so they must
+     * outlive the writing JVM like the index itself.
+     */
+    private static final StubBundleCache CATALOGUE = new StubBundleCache(
+            Paths.get(System.getProperty("java.io.tmpdir"), "ch.sourcepond.testing.catalogue"),
+            getLong(CATALOGUE_MAX_SIZE_PROPERTY, DEFAULT_CATALOGUE_MAX_SIZE));
 
-            final Properties props = new Properties();
-            try (final InputStream in = new FileInputStream(BUNDLES_FILE)) {
-                props.load(in);
+    private static BundleIndex.Entry writeJar(final String pKey, final InputStream pIn) {
+        return writeJar(false, pKey, pIn);
+    }
+
+    /**
+     * @param pCatalogue {@code true} to store the jar in the persistent catalogue directory,
+     *                   {@code false} to write it into a temporary file
+     */
+    private static BundleIndex.Entry writeJar(final boolean pCatalogue, final String pKey, final InputStream pIn) {
+        try {
+            final long start = SetupInstrumentation.start();
+            final InputStream in = JarNormalizer.isBundleWriterEnabled() ? JarNormalizer.normalize(pIn) : pIn;
+            final String location;
+            final long size;
+            if (InMemoryBundleStore.isEnabled()) {
+                final InMemoryBundleStore store = InMemoryBundleStore.getInstance();
+                location = store.store(in);
+                size = store.size(location);
+            } else if (pCatalogue) {
+                final byte[] bundle = ClassFiles.bytes(in);
+                final String key = new ContentKey().add(bundle).build();
+                Path f = CATALOGUE.lookup(key);
+                if (f == null) {
+                    f = CATALOGUE.store(key, new ByteArrayInputStream(bundle));
+                }
+                location = f.toUri().toURL().toString();
+                size = bundle.length;
+            } else {
+                final Path f = TemporaryFiles.createTempJar(UUID.randomUUID().toString());
+                copy(in, f, REPLACE_EXISTING);
+                location = f.toUri().toURL().toString();
+                size = size(f);
             }
-            return props;
+            SetupInstrumentation.completed(SetupStage.BUNDLE_WRITE, pKey, start);
+            SetupInstrumentation.bundleProduced(SetupStage.BUNDLE_WRITE, location, size);
+            return new BundleIndex.Entry(location, currentTimeMillis());
         } catch (final IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
     public static void writeBundle(final String pKey, final InputStream pIn) {
+        writeBundles(singletonMap(pKey, pIn));
+    }
+
+    /**
+     * Writes all bundles specified in parallel and registers them with a
+     * single append to the index. Bundles held in memory are registered for
+     * this JVM only.
+     *
+     * @param pBundles Bundle streams mapped to their keys, must not be {@code null}
+     */
+    public static void writeBundles(final Map<String, ? extends InputStream> pBundles) {
+        assertNotNull("Bundles are null", pBundles);
+        final Map<String, BundleIndex.Entry> written = new ConcurrentHashMap<>();
+        pBundles.entrySet().parallelStream().forEach(e -> written.put(e.getKey(), writeJar(e.getKey(), e.getValue())));
         try {
-            File f = File.createTempFile(UUID.randomUUID().toString(), ".jar");
-            f.deleteOnExit();
-            try (final OutputStream out = new FileOutputStream(f)) {
-                byte[] buffer = new byte[4096];
-                int read;
-                while ((read = pIn.read(buffer)) != -1) {
-                    out.write(buffer, 0, read);
-                }
-            }
-            PROPS.setProperty(pKey, f.toURI().toURL().toString());
-            try (final OutputStream out = new FileOutputStream(BUNDLES_FILE)) {
-                PROPS.store(out, null);
+            register(written);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void register(final Map<String, BundleIndex.Entry> pWritten) throws IOException {
+        if (InMemoryBundleStore.isEnabled()) {
+            for (final Map.Entry<String, BundleIndex.Entry> entry : pWritten.entrySet()) {
+                IN_MEMORY.put(entry.getKey(), entry.getValue().location);
             }
+        } else {
+            INDEX.append(pWritten);
+        }
+    }
+
+    /**
+     * Writes all bundles specified in parallel into the catalogue directory
+     * {@code ${java.io.tmpdir}/ch.sourcepond.testing.catalogue}, registers them
+     * like {@link #writeBundles(Map)} and returns an option which provisions
+     * all of them in the iteration order of the map specified. Catalogue
+     * bundles are named after the SHA-256 of their content and outlive the
+     * writing JVM, so they remain accessible through {@link #getLocation(String)}
+     * and {@link #catalogueOption(String...)} from other JVMs. The total size
+     * of the directory is bounded by {@value #CATALOGUE_MAX_SIZE_PROPERTY}
+     * (bytes, default 256 MiB); least recently used bundles are evicted first.
+     *
+     * @param pBundles Bundle streams mapped to their keys, must not be {@code null}
+     * @return Option, never {@code null}
+     */
+    public static Option writeCatalogue(final Map<String, ? extends InputStream> pBundles) {
+        assertNotNull("Bundles are null", pBundles);
+        final Map<String, BundleIndex.Entry> written = new ConcurrentHashMap<>();
+        pBundles.entrySet().parallelStream().forEach(e -> written.put(e.getKey(), writeJar(true, e.getKey(), e.getValue())));
+        try {
+            register(written);
         } catch (final IOException e) {
             throw new UncheckedIOException(e);
         }
+        final String[] locations = new String[pBundles.size()];
+        int i = 0;
+        for (final String key : pBundles.keySet()) {
+            locations[i++] = written.get(key).location;
+        }
+        return provision(locations);
+    }
+
+    /**
+     * Creates an option which provisions the bundles written for the keys
+     * specified, possibly by another JVM.
+     *
+     * @param pKeys Keys of the bundles, must not be {@code null}
+     * @return Option, never {@code null}
+     */
+    public static Option catalogueOption(final String... pKeys) {
+        assertNotNull("Keys are null", pKeys);
+        final String[] locations = new String[pKeys.length];
+        for (int i = 0; i < pKeys.length; i++) {
+            locations[i] = getLocation(pKeys[i]);
+        }
+        return provision(locations);
     }
 
     public static String getLocation(final String pKey) {
-        final String location = PROPS.getProperty(pKey);
-        assertNotNull(String.format("No bundle writen for key %s", pKey), location);
-        return location;
+        final String inMemory = IN_MEMORY.get(pKey);
+        if (inMemory != null) {
+            return inMemory;
+        }
+        final BundleIndex.Entry entry;
+        try {
+            entry = INDEX.get(pKey);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        assertNotNull(String.format("No bundle writen for key %s", pKey), entry);
+        assertTrue(String.format("Bundle for key %s has been deleted: %s", pKey, entry.location),
+                !entry.location.startsWith("file:") || new File(URI.create(entry.location)).isFile());
+        return entry.location;
     }
 }
@@ -0,0 +1,261 @@
+package ch.sourcepond.testing;
+
+import static java.lang.String.format;
+import static java.lang.reflect.Modifier.isStatic;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Collects the classes a stub needs by walking the constant pools of its
+ * class-files. Only classes which originate from the same code-source as the
+ * root class (for instance {@code target/test-classes}) are collected; all
+ * other classes are expected to be imported by the stub-bundle.
+ * </p>
+ * 
+ * <p>
+ * The edge from a static nested class to its enclosing class is not followed,
+ * because the enclosing class is only referenced by the {@code InnerClasses}
+ * attribute unless it is actually used; this keeps test classes which contain
+ * stubs as nested classes out of the stub-bundle. An enclosing class which is
+ * referenced by any other collected class is collected. The direct references
+ * of every class and the collected closures are cached for the lifetime of
+ * the JVM.
+ * </p>
+ */
+final class ClassDependencies {
+	private static final int UTF8 = 1;
+	private static final int INTEGER = 3;
+	private static final int FLOAT = 4;
+	private static final int LONG = 5;
+	private static final int DOUBLE = 6;
+	private static final int CLASS = 7;
+	private static final int STRING = 8;
+	private static final int FIELD_REF = 9;
+	private static final int METHOD_REF = 10;
+	private static final int INTERFACE_METHOD_REF = 11;
+	private static final int NAME_AND_TYPE = 12;
+	private static final int METHOD_HANDLE = 15;
+	private static final int METHOD_TYPE = 16;
+	private static final int DYNAMIC = 17;
+	private static final int INVOKE_DYNAMIC = 18;
+	private static final int MODULE = 19;
+	private static final int PACKAGE = 20;
+	private static final Pattern DESCRIPTOR_TYPE = Pattern.compile("L([^;<>()\\[]+);");
+	private static final ConcurrentMap<Class<?>, References> REFERENCES = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<Class<?>, Set<Class<?>>> CLOSURES = new ConcurrentHashMap<>();
+
+	private ClassDependencies() {
+		// No instances
+	}
+
+	/**
+	 * Class names referenced by a class-file, in binary form (dot separated).
+	 */
+	private static final class References {
+		final Set<String> required = new TreeSet<>();
+		final Set<String> descriptors = new TreeSet<>();
+	}
+
+	/**
+	 * Returns the root class specified together with all classes of the same
+	 * code-source it transitively references.
+	 * 
+	 * @param pRoot
+	 *            Root class, must not be {@code null}
+	 * @return Unmodifiable set of classes, never {@code null}
+	 * @throws AssertionError
+	 *             Thrown, if a referenced class of the same code-source cannot
+	 *             be loaded. Such a class would cause a
+	 *             {@link NoClassDefFoundError} inside the test-container.
+	 */
+	static Set<Class<?>> collect(final Class<?> pRoot) {
+		return CLOSURES.computeIfAbsent(pRoot, ClassDependencies::walk);
+	}
+
+	/**
+	 * Returns the names of all packages the class-file specified references,
+	 * except {@code java.*} packages and the default package.
+	 * 
+	 * @param pClassFile
+	 *            Class-file, must not be {@code null}
+	 * @return Set of package names, never {@code null}
+	 * @throws IOException
+	 *             Thrown, if the class-file is malformed.
+	 */
+	static Set<String> referencedPackages(final byte[] pClassFile) throws IOException {
+		final References references = parse(pClassFile);
+		final Set<String> packages = new TreeSet<>();
+		addPackages(references.required, packages);
+		addPackages(references.descriptors, packages);
+		return packages;
+	}
+
+	private static void addPackages(final Set<String> pNames, final Set<String> pPackages) {
+		for (final String name : pNames) {
+			final int idx = name.lastIndexOf('.');
+			if (idx > 0 && !name.startsWith("java.")) {
+				pPackages.add(name.substring(0, idx));
+			}
+		}
+	}
+
+	private static Set<Class<?>> walk(final Class<?> pRoot) {
+		final URL codeSource = location(pRoot);
+		final ClassLoader loader = pRoot.getClassLoader();
+		final Set<Class<?>> collected = new LinkedHashSet<>();
+		final Set<String> missing = new TreeSet<>();
+		final Set<String> visited = new HashSet<>();
+		final Deque<Class<?>> queue = new ArrayDeque<>();
+		queue.add(pRoot);
+		visited.add(pRoot.getName());
+
+		while (!queue.isEmpty()) {
+			final Class<?> current = queue.poll();
+			collected.add(current);
+			final References references = REFERENCES.computeIfAbsent(current, ClassDependencies::parse);
+			final Class<?> enclosing = isStatic(current.getModifiers()) ? current.getEnclosingClass() : null;
+
+			for (final String name : references.required) {
+				follow(name, true, enclosing, codeSource, loader, visited, queue, missing);
+			}
+			for (final String name : references.descriptors) {
+				follow(name, false, enclosing, codeSource, loader, visited, queue, missing);
+			}
+		}
+
+		assertTrue(format("Classes referenced by %s could not be loaded: %s", pRoot.getName(), missing),
+				missing.isEmpty());
+		return Collections.unmodifiableSet(collected);
+	}
+
+	private static void follow(final String pName, final boolean pRequired, final Class<?> pEnclosing,
+			final URL pCodeSource, final ClassLoader pLoader, final Set<String> pVisited,
+			final Deque<Class<?>> pQueue, final Set<String> pMissing) {
+		// The edge to the enclosing class is skipped without marking it as
+		// visited, so it is still collected if another class references it
+		if (pName.startsWith("java.") || (pEnclosing != null && pEnclosing.getName().equals(pName))
+				|| !pVisited.add(pName)) {
+			return;
+		}
+		try {
+			final Class<?> cl = Class.forName(pName, false, pLoader);
+			if (pCodeSource != null && Objects.equals(pCodeSource, location(cl))) {
+				pQueue.add(cl);
+			}
+		} catch (final ClassNotFoundException | LinkageError e) {
+			final String resource = format("%s.class", pName.replace('.', '/'));
+			if (pRequired && (pLoader == null || pLoader.getResource(resource) != null)) {
+				// Present but not loadable, for instance because of a
+				// missing super-class
+				pMissing.add(pName);
+			}
+		}
+	}
+
+	private static URL location(final Class<?> pClass) {
+		final CodeSource codeSource = pClass.getProtectionDomain().getCodeSource();
+		return codeSource == null ? null : codeSource.getLocation();
+	}
+
+	private static References parse(final Class<?> pClass) {
+		try {
+			return parse(ClassFiles.bytes(pClass));
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static References parse(final byte[] pClassFile) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(pClassFile));
+		in.readInt(); // magic
+		in.readUnsignedShort(); // minor version
+		in.readUnsignedShort(); // major version
+		final int count = in.readUnsignedShort();
+		final String[] utf8 = new String[count];
+		final int[] classes = new int[count];
+		int classCount = 0;
+
+		for (int i = 1; i < count; i++) {
+			final int tag = in.readUnsignedByte();
+			switch (tag) {
+			case UTF8:
+				utf8[i] = in.readUTF();
+				break;
+			case CLASS:
+				classes[classCount++] = in.readUnsignedShort();
+				break;
+			case STRING:
+			case METHOD_TYPE:
+			case MODULE:
+			case PACKAGE:
+				in.readUnsignedShort();
+				break;
+			case METHOD_HANDLE:
+				in.readUnsignedByte();
+				in.readUnsignedShort();
+				break;
+			case INTEGER:
+			case FLOAT:
+			case FIELD_REF:
+			case METHOD_REF:
+			case INTERFACE_METHOD_REF:
+			case NAME_AND_TYPE:
+			case DYNAMIC:
+			case INVOKE_DYNAMIC:
+				in.readInt();
+				break;
+			case LONG:
+			case DOUBLE:
+				in.readLong();
+				// Takes two entries of the constant pool
+				i++;
+				break;
+			default:
+				throw new IOException(format("Unknown constant pool tag %d at index %d", tag, i));
+			}
+		}
+
+		final References references = new References();
+		for (int i = 0; i < classCount; i++) {
+			final String name = utf8[classes[i]];
+			if (name.startsWith("[")) {
+				addDescriptorTypes(name, references.required);
+			} else {
+				references.required.add(name.replace('/', '.'));
+			}
+		}
+		for (final String value : utf8) {
+			if (value != null) {
+				addDescriptorTypes(value, references.descriptors);
+			}
+		}
+		references.descriptors.removeAll(references.required);
+		return references;
+	}
+
+	private static void addDescriptorTypes(final String pDescriptor, final Set<String> pNames) {
+		final Matcher matcher = DESCRIPTOR_TYPE.matcher(pDescriptor);
+		while (matcher.find()) {
+			pNames.add(matcher.group(1).replace('/', '.'));
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package ch.sourcepond.testing;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Small helper to access the class-file bytes of a loaded class.
+ */
+final class ClassFiles {
+
+	private ClassFiles() {
+		// No instances
+	}
+
+	static String resourceName(final Class<?> pClass) {
+		return format("%s.class", pClass.getName().replace('.', '/'));
+	}
+
+	static byte[] bytes(final Class<?> pClass) throws IOException {
+		ClassLoader loader = pClass.getClassLoader();
+		if (loader == null) {
+			loader = ClassLoader.getSystemClassLoader();
+		}
+		try (final InputStream in = loader.getResourceAsStream(resourceName(pClass))) {
+			assertNotNull(format("No class-file found for %s", pClass.getName()), in);
+			return bytes(in);
+		}
+	}
+
+	static byte[] bytes(final InputStream pIn) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int read;
+		while ((read = pIn.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
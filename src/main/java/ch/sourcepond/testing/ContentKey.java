@@ -0,0 +1,59 @@
+package ch.sourcepond.testing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Accumulates content into a SHA-256 digest which can be used as a key for
+ * content-addressed caches. Every added value is prefixed with its length, so
+ * different sequences of values never produce the same key. Every key starts
+ * with {@link #FORMAT_VERSION}, which must be incremented whenever the content
+ * of cached artifacts changes for the same input, for instance when the
+ * {@link JarNormalizer} changes; bundles cached by older versions are then
+ * never served.
+ */
+final class ContentKey {
+	static final int FORMAT_VERSION = 2;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private final MessageDigest digest;
+
+	ContentKey() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		add(Integer.toString(FORMAT_VERSION));
+	}
+
+	ContentKey add(final String pValue) {
+		return add(pValue.getBytes(UTF_8));
+	}
+
+	ContentKey add(final byte[] pValue) {
+		final int length = pValue.length;
+		digest.update((byte) (length >>> 24));
+		digest.update((byte) (length >>> 16));
+		digest.update((byte) (length >>> 8));
+		digest.update((byte) length);
+		digest.update(pValue);
+		return this;
+	}
+
+	ContentKey add(final Class<?> pClass) throws IOException {
+		return add(pClass.getName()).add(ClassFiles.bytes(pClass));
+	}
+
+	String build() {
+		final byte[] hash = digest.digest();
+		final char[] key = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			key[i * 2] = HEX[(hash[i] >>> 4) & 0x0f];
+			key[i * 2 + 1] = HEX[hash[i] & 0x0f];
+		}
+		return new String(key);
+	}
+}
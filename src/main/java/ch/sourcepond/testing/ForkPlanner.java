@@ -0,0 +1,307 @@
+package ch.sourcepond.testing;
+
+import org.junit.Test;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.options.ProvisionOption;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.size;
+import static java.nio.file.Paths.get;
+import static java.util.Collections.newSetFromMap;
+import static org.junit.Assert.*;
+import static org.ops4j.pax.exam.OptionUtils.expand;
+
+/**
+ * Distributes Pax-Exam test classes over a number of forks. Every test class
+ * is fingerprinted by the options returned from its {@link Configuration}
+ * methods; classes with the same fingerprint need the same container and are
+ * always assigned to the same fork, so they can share one container when they
+ * use {@code @ExamReactorStrategy(PerSuite.class)}. The groups are assigned
+ * with the longest-processing-time-first rule: heaviest group first, always to
+ * the fork with the least load so far.
+ * <p>
+ * Fingerprinting invokes every {@link Configuration} method in the planning
+ * JVM, so stub-bundles and other bundles created by the configurations are
+ * built there; stub-bundles land in the {@link StubBundleCache} and are reused
+ * by the forks. Bundles provisioned from {@code file:} URLs or from the
+ * {@link InMemoryBundleStore} are fingerprinted by their content, because
+ * their locations are random. Options without a meaningful
+ * {@code toString()} are fingerprinted by their fields; if a field cannot be
+ * described either, planning fails rather than grouping unrelated
+ * configurations.
+ * </p>
+ */
+final class ForkPlanner {
+    /**
+     * Load of starting a container, in units of test methods.
+     */
+    static final int CONTAINER_WEIGHT = 10;
+
+    /**
+     * Content keys of provisioned files, keyed by URL, size and modification time.
+     */
+    private static final ConcurrentMap<String, String> FILE_KEYS = new ConcurrentHashMap<>();
+    private final Map<String, List<Class<?>>> groups = new LinkedHashMap<>();
+
+    ForkPlanner(final Class<?>... pTestClasses) {
+        for (final Class<?> testClass : pTestClasses) {
+            assertNotNull("Test class is null", testClass);
+            groups.computeIfAbsent(fingerprint(testClass), k -> new ArrayList<>()).add(testClass);
+        }
+    }
+
+    /**
+     * @return Fingerprint of the container configuration of the test class specified, never {@code null}
+     */
+    static String fingerprint(final Class<?> pTestClass) {
+        final ContentKey key = new ContentKey();
+        final List<Method> configurations = new ArrayList<>();
+        for (final Method method : pTestClass.getMethods()) {
+            if (method.isAnnotationPresent(Configuration.class)) {
+                configurations.add(method);
+            }
+        }
+        assertFalse(format("%s has no @Configuration method", pTestClass.getName()), configurations.isEmpty());
+        configurations.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+        for (final Method configuration : configurations) {
+            for (final Option option : expand(invoke(pTestClass, configuration))) {
+                key.add(describe(option));
+            }
+        }
+        return key.build();
+    }
+
+    private static Option[] invoke(final Class<?> pTestClass, final Method pConfiguration) {
+        try {
+            final Object target = Modifier.isStatic(pConfiguration.getModifiers()) ? null : pTestClass.newInstance();
+            final Object options = pConfiguration.invoke(target);
+            return options instanceof Option[] ? (Option[]) options : new Option[]{(Option) options};
+        } catch (final InvocationTargetException e) {
+            throw new IllegalStateException(format("Configuration of %s failed", pTestClass.getName()), e.getCause());
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException(format("Configuration of %s could not be invoked", pTestClass.getName()), e);
+        }
+    }
+
+    private static String describe(final Option pOption) {
+        final StringBuilder description = new StringBuilder();
+        describe(pOption, description, newSetFromMap(new IdentityHashMap<>()));
+        return description.toString();
+    }
+
+    private static void describe(final Option pOption, final StringBuilder pOut, final Set<Object> pSeen) {
+        pOut.append(pOption.getClass().getName());
+        if (pOption instanceof ProvisionOption) {
+            final ProvisionOption<?> provision = (ProvisionOption<?>) pOption;
+            pOut.append(format(":provision:%s:start=%s:level=%s:update=%s", content(provision.getURL()),
+                    provision.shouldStart(), provision.getStartLevel(), provision.shouldUpdate()));
+            return;
+        }
+        final String description = pOption.toString();
+        if (!isIdentity(pOption, description)) {
+            pOut.append(':').append(description);
+        } else if (pSeen.add(pOption)) {
+            pOut.append('{');
+            describeFields(pOption, pOut, pSeen);
+            pOut.append('}');
+        } else {
+            pOut.append("{cycle}");
+        }
+    }
+
+    private static boolean isIdentity(final Object pValue, final String pDescription) {
+        return (pValue.getClass().getName() + "@" + Integer.toHexString(pValue.hashCode())).equals(pDescription);
+    }
+
+    /**
+     * @return Content key of the bundle at the location specified, or the location itself
+     * if it is neither a file nor held in memory.
+     */
+    private static String content(final String pUrl) {
+        if (pUrl == null) {
+            return "null";
+        }
+        if (pUrl.startsWith("file:")) {
+            final Path file = get(URI.create(pUrl));
+            if (isRegularFile(file)) {
+                try {
+                    return FILE_KEYS.computeIfAbsent(format("%s:%d:%d", pUrl, size(file),
+                            getLastModifiedTime(file).toMillis()), k -> {
+                        try {
+                            return "sha256:" + new ContentKey().add(readAllBytes(file)).build();
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        } else if (InMemoryBundleStore.isEnabled()) {
+            final byte[] bundle = InMemoryBundleStore.getInstance().get(pUrl);
+            if (bundle != null) {
+                return "sha256:" + new ContentKey().add(bundle).build();
+            }
+        }
+        return pUrl;
+    }
+
+    private static void describeFields(final Object pValue, final StringBuilder pOut, final Set<Object> pSeen) {
+        for (Class<?> cl = pValue.getClass(); cl != Object.class; cl = cl.getSuperclass()) {
+            final Field[] fields = cl.getDeclaredFields();
+            Arrays.sort(fields, (a, b) -> a.getName().compareTo(b.getName()));
+            for (final Field field : fields) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                    continue;
+                }
+                final Object value;
+                try {
+                    field.setAccessible(true);
+                    value = field.get(pValue);
+                } catch (final IllegalAccessException | RuntimeException e) {
+                    throw new IllegalStateException(format("Field %s of %s cannot be fingerprinted",
+                            field.getName(), cl.getName()), e);
+                }
+                pOut.append(field.getName()).append('=');
+                describeValue(value, pOut, pSeen);
+                pOut.append(';');
+            }
+        }
+    }
+
+    private static void describeValue(final Object pValue, final StringBuilder pOut, final Set<Object> pSeen) {
+        if (pValue == null) {
+            pOut.append("null");
+        } else if (pValue instanceof Option) {
+            describe((Option) pValue, pOut, pSeen);
+        } else if (pValue instanceof Class) {
+            pOut.append(((Class<?>) pValue).getName());
+        } else if (pValue.getClass().isArray()) {
+            pOut.append('[');
+            for (int i = 0; i < Array.getLength(pValue); i++) {
+                describeValue(Array.get(pValue, i), pOut, pSeen);
+                pOut.append(',');
+            }
+            pOut.append(']');
+        } else if (pValue instanceof Map) {
+            pOut.append('{');
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) pValue).entrySet()) {
+                describeValue(entry.getKey(), pOut, pSeen);
+                pOut.append('=');
+                describeValue(entry.getValue(), pOut, pSeen);
+                pOut.append(',');
+            }
+            pOut.append('}');
+        } else if (pValue instanceof Iterable) {
+            pOut.append('[');
+            for (final Object element : (Iterable<?>) pValue) {
+                describeValue(element, pOut, pSeen);
+                pOut.append(',');
+            }
+            pOut.append(']');
+        } else {
+            final String description = pValue.toString();
+            if (isIdentity(pValue, description)) {
+                throw new IllegalStateException(format("%s has no meaningful toString and cannot be fingerprinted",
+                        pValue.getClass().getName()));
+            }
+            pOut.append(description);
+        }
+    }
+
+    private static int weight(final List<Class<?>> pGroup) {
+        int weight = CONTAINER_WEIGHT;
+        for (final Class<?> testClass : pGroup) {
+            for (final Method method : testClass.getMethods()) {
+                if (method.isAnnotationPresent(Test.class)) {
+                    weight++;
+                }
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * @param pForks Number of forks, must be positive
+     * @return List of test classes per fork, never {@code null}
+     */
+    List<List<Class<?>>> plan(final int pForks) {
+        assertTrue("Number of forks must be positive", pForks > 0);
+        final List<List<Class<?>>> sorted = new ArrayList<>(groups.values());
+        final Map<List<Class<?>>, Integer> weights = new LinkedHashMap<>();
+        for (final List<Class<?>> group : sorted) {
+            weights.put(group, weight(group));
+        }
+        sorted.sort((a, b) -> Integer.compare(weights.get(b), weights.get(a)));
+
+        final List<List<Class<?>>> forks = new ArrayList<>(pForks);
+        final int[] loads = new int[pForks];
+        for (int i = 0; i < pForks; i++) {
+            forks.add(new ArrayList<>());
+        }
+        for (final List<Class<?>> group : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < pForks; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            forks.get(lightest).addAll(group);
+            loads[lightest] += weights.get(group);
+        }
+        for (int i = 0; i < pForks; i++) {
+            forks.set(i, Collections.unmodifiableList(forks.get(i)));
+        }
+        return Collections.unmodifiableList(forks);
+    }
+
+    /**
+     * Writes one file per fork into the directory specified. Each file lists the
+     * fully qualified names of the test classes of its fork, one per line, and
+     * can be passed to surefire with {@code -Dsurefire.includesFile}.
+     */
+    static void write(final Path pDir, final List<List<Class<?>>> pForks) {
+        try {
+            createDirectories(pDir);
+            for (int i = 0; i < pForks.size(); i++) {
+                try (final Writer writer = newBufferedWriter(pDir.resolve(format("fork-%d.txt", i)), UTF_8)) {
+                    for (final Class<?> testClass : pForks.get(i)) {
+                        writer.write(testClass.getName());
+                        writer.write('\n');
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ch.sourcepond.testing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import static java.nio.file.Files.readAttributes;
+
+/**
+ * Selects the candidate bundles which are necessary to resolve the
+ * {@code Import-Package} headers of a set of root bundles. Candidates are
+ * added transitively: if a selected candidate imports a package which is
+ * exported by another candidate, that candidate is selected too. Optional
+ * imports and packages exported by no candidate (for instance packages of the
+ * framework or of the JUnit bundles) are ignored.
+ *
+ * <p>A root jar without {@code Import-Package} header, for instance a tests jar
+ * which is provisioned as wrapped bundle, is treated the way bnd wraps it: all
+ * packages referenced by its class-files are imported. Selections are cached
+ * for the lifetime of the JVM; the key includes size and modification time of
+ * every jar, so a new examinee version or a rebuilt snapshot is analysed anew.
+ */
+final class ImportClosure {
+    private static final ConcurrentMap<String, List<String>> SELECTIONS = new ConcurrentHashMap<>();
+
+    private ImportClosure() {
+        // No instances
+    }
+
+    /**
+     * @param pRootUrls      {@code file:} URLs of the root bundles, must not be {@code null}
+     * @param pCandidateUrls Candidate {@code file:} URLs by an arbitrary name, must not be {@code null}
+     * @return Names of the selected candidates in the order of the candidate map, never {@code null}
+     */
+    static List<String> select(final Collection<String> pRootUrls, final Map<String, String> pCandidateUrls) {
+        try {
+            final ContentKey key = new ContentKey();
+            for (final String url : pRootUrls) {
+                key.add(url).add(stamp(url));
+            }
+            for (final Map.Entry<String, String> candidate : pCandidateUrls.entrySet()) {
+                key.add(candidate.getKey()).add(candidate.getValue()).add(stamp(candidate.getValue()));
+            }
+            final String cacheKey = key.build();
+            final List<String> cached = SELECTIONS.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+            final List<String> selection = compute(pRootUrls, pCandidateUrls);
+            SELECTIONS.put(cacheKey, selection);
+            return selection;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<String> compute(final Collection<String> pRootUrls, final Map<String, String> pCandidateUrls)
+            throws IOException {
+        final Map<String, String> exporters = new HashMap<>();
+        final Map<String, Set<String>> candidateImports = new HashMap<>();
+        for (final Map.Entry<String, String> candidate : pCandidateUrls.entrySet()) {
+            final Manifest manifest = manifest(candidate.getValue());
+            final Attributes attributes = manifest == null ? new Attributes() : manifest.getMainAttributes();
+            for (final String exported : ManifestHeaders.packageNames(attributes.getValue("Export-Package"))) {
+                exporters.putIfAbsent(exported, candidate.getKey());
+            }
+            candidateImports.put(candidate.getKey(), imports(attributes.getValue("Import-Package")));
+        }
+
+        final Deque<String> needed = new ArrayDeque<>();
+        for (final String url : pRootUrls) {
+            needed.addAll(rootImports(url));
+        }
+
+        final Set<String> selected = new HashSet<>();
+        final Set<String> visited = new HashSet<>();
+        while (!needed.isEmpty()) {
+            final String pkg = needed.poll();
+            if (!visited.add(pkg)) {
+                continue;
+            }
+            final String exporter = exporters.get(pkg);
+            if (exporter != null && selected.add(exporter)) {
+                needed.addAll(candidateImports.get(exporter));
+            }
+        }
+
+        final List<String> ordered = new ArrayList<>(selected.size());
+        for (final String name : pCandidateUrls.keySet()) {
+            if (selected.contains(name)) {
+                ordered.add(name);
+            }
+        }
+        return Collections.unmodifiableList(ordered);
+    }
+
+    /**
+     * @return Mandatory imports of the header specified, never {@code null}
+     */
+    private static Set<String> imports(final String pHeader) {
+        final Set<String> imports = new LinkedHashSet<>();
+        for (final String clause : ManifestHeaders.clauses(pHeader)) {
+            if (!clause.replace(" ", "").contains("resolution:=optional")) {
+                imports.addAll(ManifestHeaders.packageNames(clause));
+            }
+        }
+        return imports;
+    }
+
+    private static Set<String> rootImports(final String pUrl) throws IOException {
+        try (final JarFile jar = new JarFile(path(pUrl).toFile())) {
+            final Manifest manifest = jar.getManifest();
+            final String header = manifest == null ? null : manifest.getMainAttributes().getValue("Import-Package");
+            if (header != null) {
+                return imports(header);
+            }
+
+            final Set<String> contained = new HashSet<>();
+            final Set<String> referenced = new LinkedHashSet<>();
+            final Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                final String name = entry.getName();
+                if (!entry.isDirectory() && name.endsWith(".class")) {
+                    final int idx = name.lastIndexOf('/');
+                    if (idx > 0) {
+                        contained.add(name.substring(0, idx).replace('/', '.'));
+                    }
+                    try (final InputStream in = jar.getInputStream(entry)) {
+                        referenced.addAll(ClassDependencies.referencedPackages(ClassFiles.bytes(in)));
+                    }
+                }
+            }
+            referenced.removeAll(contained);
+            return referenced;
+        }
+    }
+
+    private static Manifest manifest(final String pUrl) throws IOException {
+        try (final JarFile jar = new JarFile(path(pUrl).toFile())) {
+            return jar.getManifest();
+        }
+    }
+
+    private static Path path(final String pUrl) {
+        return Paths.get(URI.create(pUrl));
+    }
+
+    private static String stamp(final String pUrl) throws IOException {
+        final BasicFileAttributes attributes = readAttributes(path(pUrl), BasicFileAttributes.class);
+        return attributes.size() + "@" + attributes.lastModifiedTime().toMillis();
+    }
+}
@@ -0,0 +1,227 @@
+package ch.sourcepond.testing;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
+
+import static java.lang.Boolean.getBoolean;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * <p>
+ * Keeps generated bundles in memory and serves them through a minimal HTTP
+ * server which is bound to the loopback interface. The returned
+ * {@code http://127.0.0.1:<port>/bundles/<id>.jar} locations can be provisioned
+ * like any other URL, also into a forked test-container on the same machine,
+ * and are valid until they are released or the JVM terminates. No bundle
+ * ever touches the disk.
+ * </p>
+ * <p>
+ * The store is used by {@link ServiceStubber}, {@link ServiceStubSet} and
+ * {@link BundleWriter} if the system property {@value #ENABLED_PROPERTY} is
+ * set to {@code true}. Stub-bundles are then not cached in the
+ * {@link StubBundleCache}, and bundles written by {@link BundleWriter} are not
+ * registered in its shared index, because their locations are only valid
+ * while this JVM runs.
+ * </p>
+ */
+public final class InMemoryBundleStore {
+    public static final String ENABLED_PROPERTY = "ch.sourcepond.testing.inMemoryBundles";
+    private static final String PATH_PREFIX = "/bundles/";
+    private static final int MAX_HANDLERS = 16;
+    private static final int READ_TIMEOUT_MILLIS = 10_000;
+    private static InMemoryBundleStore instance;
+    private final ConcurrentMap<String, byte[]> bundles = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> locationsByKey = new ConcurrentHashMap<>();
+    // Bounded; when all handlers are busy the acceptor serves the connection itself,
+    // which lets further clients wait in the listen backlog instead of spawning threads
+    private final ThreadPoolExecutor handlers = new ThreadPoolExecutor(0, MAX_HANDLERS, 60, SECONDS,
+            new SynchronousQueue<>(), r -> {
+        final Thread thread = new Thread(r, "InMemoryBundleStore handler");
+        thread.setDaemon(true);
+        return thread;
+    }, new CallerRunsPolicy());
+    private final ServerSocket server;
+    private final String baseUrl;
+
+    private InMemoryBundleStore() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        baseUrl = format("http://%s:%d%s", server.getInetAddress().getHostAddress(), server.getLocalPort(), PATH_PREFIX);
+        final Thread acceptor = new Thread(this::accept, "InMemoryBundleStore acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    static boolean isEnabled() {
+        return getBoolean(ENABLED_PROPERTY);
+    }
+
+    static synchronized InMemoryBundleStore getInstance() {
+        if (instance == null) {
+            try {
+                instance = new InMemoryBundleStore();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Stores the bundle read from the stream specified.
+     *
+     * @return Location of the bundle, never {@code null}
+     */
+    String store(final InputStream pBundle) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = pBundle.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return store(out.toByteArray());
+    }
+
+    /**
+     * Stores the bundle specified.
+     *
+     * @return Location of the bundle, never {@code null}
+     */
+    String store(final byte[] pBundle) {
+        final String id = UUID.randomUUID().toString();
+        bundles.put(id, pBundle);
+        return baseUrl + id + ".jar";
+    }
+
+    /**
+     * Returns the location of the bundle stored under the content key
+     * specified, or {@code null} if no such bundle has been stored or it has
+     * been released.
+     */
+    String lookup(final String pKey) {
+        final String location = locationsByKey.get(pKey);
+        return location != null && bundles.containsKey(id(location)) ? location : null;
+    }
+
+    /**
+     * Stores the bundle specified under the content key specified, so that it
+     * can be found with {@link #lookup(String)}.
+     */
+    String store(final String pKey, final InputStream pBundle) throws IOException {
+        final String location = store(pBundle);
+        locationsByKey.put(pKey, location);
+        return location;
+    }
+
+    /**
+     * @return Content of the bundle at the location specified, or {@code null} if no such bundle is stored.
+     */
+    byte[] get(final String pLocation) {
+        return bundles.get(id(pLocation));
+    }
+
+    /**
+     * @return Size in bytes of the bundle at the location specified, or -1 if no such bundle is stored.
+     */
+    long size(final String pLocation) {
+        final byte[] bundle = bundles.get(id(pLocation));
+        return bundle == null ? -1 : bundle.length;
+    }
+
+    private String id(final String pLocation) {
+        if (!pLocation.startsWith(baseUrl) || !pLocation.endsWith(".jar")) {
+            return "";
+        }
+        return pLocation.substring(baseUrl.length(), pLocation.length() - ".jar".length());
+    }
+
+    /**
+     * Releases the bundle at the location specified. Afterwards, the location
+     * cannot be installed anymore.
+     *
+     * @param pLocation Location as returned by {@link BundleWriter#getLocation(String)} or
+     *                  contained in an option returned by {@link ServiceStubber#build()}.
+     */
+    public static void release(final String pLocation) {
+        final InMemoryBundleStore store;
+        synchronized (InMemoryBundleStore.class) {
+            store = instance;
+        }
+        if (store != null && pLocation != null) {
+            store.bundles.remove(store.id(pLocation));
+            store.locationsByKey.values().remove(pLocation);
+        }
+    }
+
+    /**
+     * Releases all bundles held in memory.
+     */
+    public static void releaseAll() {
+        final InMemoryBundleStore store;
+        synchronized (InMemoryBundleStore.class) {
+            store = instance;
+        }
+        if (store != null) {
+            store.bundles.clear();
+            store.locationsByKey.clear();
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                handlers.execute(() -> handle(socket));
+            } catch (final IOException e) {
+                // Server socket has been closed
+            }
+        }
+    }
+
+    private void handle(final Socket pSocket) {
+        try (final Socket socket = pSocket) {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ISO_8859_1));
+            final String requestLine = in.readLine();
+            String line;
+            do {
+                line = in.readLine();
+            } while (line != null && !line.isEmpty());
+
+            final String[] request = requestLine == null ? new String[0] : requestLine.split(" ");
+            final boolean head = request.length > 1 && "HEAD".equals(request[0]);
+            final byte[] bundle = request.length > 1 && (head || "GET".equals(request[0])) && request[1].startsWith(PATH_PREFIX)
+                    && request[1].endsWith(".jar") ?
+                    bundles.get(request[1].substring(PATH_PREFIX.length(), request[1].length() - ".jar".length())) : null;
+
+            final OutputStream out = socket.getOutputStream();
+            if (bundle == null) {
+                out.write("HTTP/1.0 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(ISO_8859_1));
+            } else {
+                out.write(format("HTTP/1.0 200 OK\r\nContent-Type: application/java-archive\r\nContent-Length: %d\r\n"
+                        + "Connection: close\r\n\r\n", bundle.length).getBytes(ISO_8859_1));
+                if (!head) {
+                    out.write(bundle);
+                }
+            }
+            out.flush();
+        } catch (final IOException e) {
+            // Client went away or did not send its request in time; nothing to do
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ch.sourcepond.testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static java.lang.Boolean.getBoolean;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * <p>
+ * Rewrites jar files into a canonical form which is tuned for framework
+ * startup and byte-reproducible:
+ * </p>
+ * <ul>
+ * <li>All entries are {@link ZipEntry#STORED stored}, so classes can be read
+ * without inflating them.</li>
+ * <li>{@code META-INF/MANIFEST.MF} is the first entry, followed by all other
+ * entries ordered by name, so a directory and its content are read
+ * sequentially.</li>
+ * <li>Every entry has the same timestamp and no extra fields or comments, and
+ * the {@code Bnd-LastModified} header is removed from the manifest.</li>
+ * </ul>
+ * <p>
+ * Properties entries added to stub-bundles are written with
+ * {@link #properties(Properties)}, because {@link Properties#store} adds the
+ * current date as comment.
+ * </p>
+ * <p>
+ * Stub-bundles are always normalized. Bundles written through
+ * {@link BundleWriter} are normalized if the system property
+ * {@value #BUNDLE_WRITER_PROPERTY} is {@code true}.
+ * </p>
+ */
+final class JarNormalizer {
+    static final String BUNDLE_WRITER_PROPERTY = "ch.sourcepond.testing.normalizeBundles";
+    private static final String BND_LAST_MODIFIED = "Bnd-LastModified";
+
+    /**
+     * Fixed timestamp of all entries; converted from local time so the
+     * resulting DOS time is the same in every time-zone.
+     */
+    private static final long TIMESTAMP = LocalDateTime.of(2000, 1, 1, 0, 0)
+            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    private JarNormalizer() {
+        // No instances
+    }
+
+    static boolean isBundleWriterEnabled() {
+        return getBoolean(BUNDLE_WRITER_PROPERTY);
+    }
+
+    /**
+     * Reads the jar specified completely and returns its normalized form. The
+     * stream specified is not closed.
+     *
+     * @param pJar Jar stream, must not be {@code null}
+     * @return Normalized jar, never {@code null}
+     * @throws IOException Thrown, if the jar could not be read.
+     */
+    static InputStream normalize(final InputStream pJar) throws IOException {
+        final Map<String, byte[]> entries = new TreeMap<>();
+        final ZipInputStream in = new ZipInputStream(pJar);
+        for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+            entries.put(entry.getName(), entry.isDirectory() ? new byte[0] : ClassFiles.bytes(in));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.setMethod(ZipOutputStream.STORED);
+            final byte[] manifest = entries.remove(JarFile.MANIFEST_NAME);
+            if (manifest != null) {
+                write(zip, "META-INF/", new byte[0]);
+                entries.remove("META-INF/");
+                write(zip, JarFile.MANIFEST_NAME, manifest(manifest));
+            }
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                write(zip, entry.getKey(), entry.getValue());
+            }
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    /**
+     * Writes the properties specified without comments, in particular without
+     * the date comment of {@link Properties#store(Writer, String)}, and with
+     * sorted lines, so equal properties always produce the same bytes.
+     *
+     * @param pProperties Properties, must not be {@code null}
+     * @return Properties file content in ISO 8859-1, never {@code null}
+     */
+    static byte[] properties(final Properties pProperties) {
+        final StringWriter writer = new StringWriter();
+        try {
+            pProperties.store(writer, null);
+        } catch (final IOException e) {
+            // Cannot happen with a StringWriter
+            throw new UncheckedIOException(e);
+        }
+        final Set<String> lines = new TreeSet<>();
+        for (final String line : writer.toString().split("\\r?\\n")) {
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        final StringBuilder content = new StringBuilder();
+        for (final String line : lines) {
+            content.append(line).append('\n');
+        }
+        return content.toString().getBytes(ISO_8859_1);
+    }
+
+    private static byte[] manifest(final byte[] pManifest) throws IOException {
+        final Manifest manifest = new Manifest(new ByteArrayInputStream(pManifest));
+        if (manifest.getMainAttributes().remove(new Attributes.Name(BND_LAST_MODIFIED)) == null) {
+            return pManifest;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        return out.toByteArray();
+    }
+
+    private static void write(final ZipOutputStream pZip, final String pName, final byte[] pContent)
+            throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(pContent);
+        final ZipEntry entry = new ZipEntry(pName);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setTime(TIMESTAMP);
+        entry.setSize(pContent.length);
+        entry.setCompressedSize(pContent.length);
+        entry.setCrc(crc.getValue());
+        pZip.putNextEntry(entry);
+        pZip.write(pContent);
+        pZip.closeEntry();
+    }
+}
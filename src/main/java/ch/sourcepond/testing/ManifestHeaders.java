@@ -0,0 +1,119 @@
+package ch.sourcepond.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal parser for OSGi manifest headers like {@code Import-Package} and
+ * {@code Export-Package}.
+ */
+final class ManifestHeaders {
+
+    private ManifestHeaders() {
+        // No instances
+    }
+
+    /**
+     * Splits the header specified into its clauses. Commas inside quoted
+     * attribute values, for instance {@code version="[1,2)"}, are respected.
+     *
+     * @param pHeader Header value, may be {@code null}
+     * @return List of clauses, never {@code null}
+     */
+    static List<String> clauses(final String pHeader) {
+        final List<String> clauses = new ArrayList<>();
+        if (pHeader != null) {
+            boolean quoted = false;
+            int start = 0;
+            for (int i = 0; i < pHeader.length(); i++) {
+                final char c = pHeader.charAt(i);
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (c == ',' && !quoted) {
+                    addClause(clauses, pHeader.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            addClause(clauses, pHeader.substring(start));
+        }
+        return clauses;
+    }
+
+    private static void addClause(final List<String> pClauses, final String pClause) {
+        final String clause = pClause.trim();
+        if (!clause.isEmpty()) {
+            pClauses.add(clause);
+        }
+    }
+
+    /**
+     * Returns the names of all packages listed in a package header. A clause
+     * may list several packages which share the same attributes, for instance
+     * {@code com.foo;com.bar;version=1.0}.
+     *
+     * @param pHeader Header value, may be {@code null}
+     * @return List of package names, never {@code null}
+     */
+    static List<String> packageNames(final String pHeader) {
+        final List<String> names = new ArrayList<>();
+        for (final String clause : clauses(pHeader)) {
+            for (final String element : clause.split(";")) {
+                final String name = element.trim();
+                if (name.indexOf('=') >= 0) {
+                    break;
+                }
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the value of a header clause without its attributes and
+     * directives, for instance the symbolic name of
+     * {@code com.foo;singleton:=true}.
+     *
+     * @param pHeader Header value, may be {@code null}
+     * @return Value or {@code null} if the header specified is {@code null}
+     */
+    static String value(final String pHeader) {
+        if (pHeader == null) {
+            return null;
+        }
+        final int idx = pHeader.indexOf(';');
+        return (idx < 0 ? pHeader : pHeader.substring(0, idx)).trim();
+    }
+
+    /**
+     * Returns the canonical form of a bundle version, with all three numeric
+     * components and the qualifier only if it is not empty, like
+     * {@code org.osgi.framework.Version#toString()}. For instance, {@code 1.0}
+     * and {@code 1.0.0.} both become {@code 1.0.0}. A version which is not
+     * valid is returned trimmed; the framework rejects such a bundle anyway.
+     *
+     * @param pVersion Version, may be {@code null}
+     * @return Canonical version, {@code 0.0.0} if the version specified is {@code null} or empty
+     */
+    static String version(final String pVersion) {
+        final String version = pVersion == null ? "" : pVersion.trim();
+        if (version.isEmpty()) {
+            return "0.0.0";
+        }
+        final String[] parts = version.split("\\.", 4);
+        final int[] numbers = new int[3];
+        try {
+            for (int i = 0; i < 3 && i < parts.length; i++) {
+                numbers[i] = Integer.parseInt(parts[i]);
+                if (numbers[i] < 0) {
+                    return version;
+                }
+            }
+        } catch (final NumberFormatException e) {
+            return version;
+        }
+        final String qualifier = parts.length > 3 ? parts[3] : "";
+        return numbers[0] + "." + numbers[1] + "." + numbers[2] + (qualifier.isEmpty() ? "" : "." + qualifier);
+    }
+}
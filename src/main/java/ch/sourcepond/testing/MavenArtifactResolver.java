@@ -0,0 +1,174 @@
+package ch.sourcepond.testing;
+
+import org.ops4j.pax.exam.MavenUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+import static java.lang.System.getProperty;
+import static java.lang.System.getenv;
+import static java.nio.file.Files.isRegularFile;
+
+/**
+ * <p>
+ * Resolves Maven coordinates whose version is managed by the project (see
+ * {@link MavenUtils#getArtifactVersion(String, String)}) to {@code file:} URLs
+ * pointing into the local Maven repository. Provisioning such URLs lets the
+ * test-container skip the mvn: URL handler entirely; no remote repository is
+ * ever contacted.
+ * </p>
+ * <p>
+ * The local repository is determined like Maven does: the system property
+ * {@value #LOCAL_REPOSITORY_PROPERTY}, otherwise the {@code localRepository}
+ * of {@code ~/.m2/settings.xml} or of {@code ${maven.home}/conf/settings.xml},
+ * otherwise {@code ~/.m2/repository}. If the configured location contains an
+ * expression which cannot be expanded, nothing is resolved and callers fall
+ * back to mvn: URLs. {@code -SNAPSHOT} versions are never resolved, because a
+ * snapshot in the local repository may be outdated; the mvn: URL handler
+ * checks its freshness. Resolutions are memoized for the lifetime of the JVM.
+ * </p>
+ */
+final class MavenArtifactResolver {
+    static final String LOCAL_REPOSITORY_PROPERTY = "maven.repo.local";
+    private static final String UNRESOLVED = "";
+    private static final Pattern EXPRESSION = Pattern.compile("\\$\\{(env\\.)?([^}]+)}");
+    private static final MavenArtifactResolver INSTANCE = new MavenArtifactResolver(localRepository());
+    private final ConcurrentMap<String, String> versions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> urls = new ConcurrentHashMap<>();
+    private final Path localRepository;
+
+    /**
+     * @param pLocalRepository Local repository, or {@code null} if it cannot be trusted
+     */
+    MavenArtifactResolver(final Path pLocalRepository) {
+        localRepository = pLocalRepository;
+    }
+
+    static MavenArtifactResolver getInstance() {
+        return INSTANCE;
+    }
+
+    private static Path localRepository() {
+        final Path userHome = Paths.get(getProperty("user.home"));
+        String location = getProperty(LOCAL_REPOSITORY_PROPERTY);
+        if (location == null) {
+            location = settingsLocalRepository(userHome.resolve(".m2").resolve("settings.xml"));
+        }
+        if (location == null) {
+            String mavenHome = getProperty("maven.home");
+            if (mavenHome == null) {
+                mavenHome = getenv("M2_HOME");
+            }
+            if (mavenHome != null) {
+                location = settingsLocalRepository(Paths.get(mavenHome, "conf", "settings.xml"));
+            }
+        }
+        if (location == null) {
+            return userHome.resolve(".m2").resolve("repository");
+        }
+        final String expanded = expand(location);
+        return expanded == null ? null : Paths.get(expanded);
+    }
+
+    /**
+     * @return The {@code localRepository} of the settings file specified, or {@code null}
+     */
+    private static String settingsLocalRepository(final Path pSettings) {
+        if (!isRegularFile(pSettings)) {
+            return null;
+        }
+        try {
+            final Element settings = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(pSettings.toFile()).getDocumentElement();
+            for (Node child = settings.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if ("localRepository".equals(child.getNodeName())) {
+                    final String value = child.getTextContent().trim();
+                    return value.isEmpty() ? null : value;
+                }
+            }
+            return null;
+        } catch (final ParserConfigurationException | SAXException | IOException e) {
+            // Maven would fail with such settings; don't trust any location
+            return "${invalid settings}";
+        }
+    }
+
+    /**
+     * Expands {@code ${property}} and {@code ${env.VARIABLE}} expressions.
+     *
+     * @return Expanded value or {@code null} if an expression cannot be expanded
+     */
+    private static String expand(final String pValue) {
+        final Matcher matcher = EXPRESSION.matcher(pValue);
+        final StringBuffer expanded = new StringBuffer();
+        while (matcher.find()) {
+            final String value = matcher.group(1) == null ? getProperty(matcher.group(2)) : getenv(matcher.group(2));
+            if (value == null) {
+                return null;
+            }
+            matcher.appendReplacement(expanded, Matcher.quoteReplacement(value));
+        }
+        matcher.appendTail(expanded);
+        return expanded.toString();
+    }
+
+    /**
+     * Resolves the artifact specified to a {@code file:} URL.
+     *
+     * @param pGroupId    Group-Id, must not be {@code null}
+     * @param pArtifactId Artifact-Id, must not be {@code null}
+     * @param pClassifier Classifier, or {@code null}
+     * @param pType       Type, for instance {@code jar}
+     * @return URL or {@code null} if the version of the artifact is not managed by
+     * the project, is a snapshot, or the artifact is not available in the local
+     * repository.
+     */
+    String resolve(final String pGroupId, final String pArtifactId, final String pClassifier, final String pType) {
+        if (localRepository == null) {
+            return null;
+        }
+        final String version = versions.computeIfAbsent(format("%s:%s", pGroupId, pArtifactId), k -> {
+            try {
+                return MavenUtils.getArtifactVersion(pGroupId, pArtifactId);
+            } catch (final RuntimeException e) {
+                return UNRESOLVED;
+            }
+        });
+        if (UNRESOLVED.equals(version) || version.endsWith("-SNAPSHOT")) {
+            return null;
+        }
+
+        final String gav = pClassifier == null ?
+                format("%s:%s:%s:%s", pGroupId, pArtifactId, version, pType) :
+                format("%s:%s:%s:%s:%s", pGroupId, pArtifactId, version, pClassifier, pType);
+        final String url = urls.computeIfAbsent(gav, k -> resolveFile(pGroupId, pArtifactId, version, pClassifier, pType));
+        return UNRESOLVED.equals(url) ? null : url;
+    }
+
+    private String resolveFile(final String pGroupId, final String pArtifactId, final String pVersion,
+                               final String pClassifier, final String pType) {
+        final Path file = localRepository.resolve(pGroupId.replace('.', '/')).resolve(pArtifactId).resolve(pVersion).resolve(
+                pClassifier == null ? format("%s-%s.%s", pArtifactId, pVersion, pType) :
+                        format("%s-%s-%s.%s", pArtifactId, pVersion, pClassifier, pType));
+        if (!isRegularFile(file)) {
+            return UNRESOLVED;
+        }
+        try {
+            return file.toUri().toURL().toExternalForm();
+        } catch (final MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -16,18 +16,20 @@ package ch.sourcepond.testing;
 import org.ops4j.pax.exam.Option;
 import org.ops4j.pax.exam.karaf.options.KarafFeaturesOption;
 import org.ops4j.pax.exam.karaf.options.LogLevelOption;
-import org.ops4j.pax.exam.options.MavenArtifactUrlReference;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import static java.lang.System.getProperty;
 import static java.nio.file.FileSystems.getDefault;
-import static java.nio.file.Files.newDirectoryStream;
 import static org.ops4j.pax.exam.CoreOptions.composite;
 import static org.ops4j.pax.exam.CoreOptions.frameworkProperty;
 import static org.ops4j.pax.exam.CoreOptions.junitBundles;
@@ -42,38 +44,123 @@ import static org.ops4j.pax.exam.karaf.options.KarafDistributionOption.keepRunti
 import static org.ops4j.pax.exam.karaf.options.KarafDistributionOption.logLevel;
 
 /**
- * Small helper class for Pax-Exam test configuration.
+ * Small helper class for Pax-Exam test configuration. Bundles whose version is
+ * managed by the project are resolved once to {@code file:} URLs pointing into
+ * the local Maven repository (see {@link MavenArtifactResolver}), so the
+ * test-container does not need to resolve mvn: URLs on every start.
  */
 public class OptionsHelper {
+    /**
+     * Libraries provisioned by {@link #defaultOptions(String, String...)} and
+     * the candidates of {@link #minimalOptions(String, String...)}.
+     */
+    private static final String[][] DEFAULT_LIBRARIES = {
+            {"com.google.guava", "guava"},
+            {"org.apache.commons", "commons-lang3"},
+            {"org.objenesis", "objenesis"},
+            {"org.mockito", "mockito-core"},
+            {"net.bytebuddy", "byte-buddy"} // Necessary for Mockito
+    };
 
     public static Option karafContainer(final KarafFeaturesOption... pFeaturesToBeInstalled) {
         return karafContainer(getDefault().getPath(getProperty("user.dir"), "target", "exam"), pFeaturesToBeInstalled);
     }
 
+    /**
+     * Creates a Karaf container configuration whose runtime folder is kept
+     * after the container has been stopped, for instance to inspect its logs.
+     * Use {@link #reusableKarafContainer(KarafFeaturesOption...)} to share one
+     * container between test classes instead.
+     *
+     * @param pUnpackDir             Directory into which the distribution is unpacked
+     * @param pFeaturesToBeInstalled Additional features to be installed, can be empty.
+     * @return Option, never {@code null}
+     */
     public static Option karafContainer(final Path pUnpackDir, final KarafFeaturesOption... pFeaturesToBeInstalled) {
-        MavenArtifactUrlReference karafUrl = maven()
-                .groupId("org.apache.karaf")
-                .artifactId("apache-karaf").versionAsInProject()
-                .type("tar.gz");
+        return composite(karafDistribution(pUnpackDir, pFeaturesToBeInstalled), keepRuntimeFolder());
+    }
 
+    /**
+     * <p>
+     * Creates a Karaf container configuration which is meant to be started
+     * once and shared by several test classes. Annotate the test classes with
+     * {@code @ExamReactorStrategy(PerSuite.class)}; Pax-Exam then unpacks the
+     * distribution and installs the features once per JVM and only installs
+     * and uninstalls the probe of every test class in the running container.
+     * To run the suite in several forks, distribute the test classes with
+     * {@link #planForks(int, Class[])}, so that all test classes of a fork use
+     * the same container configuration.
+     * </p>
+     * <p>
+     * The distribution is unpacked below {@code target/exam/<key>}, where the
+     * key is derived from the distribution and the features to be installed,
+     * so different configurations never share a directory. In contrast to
+     * {@link #karafContainer(KarafFeaturesOption...)}, the runtime folder is
+     * deleted when the container stops, so no unused runtime folders pile up.
+     * </p>
+     *
+     * @param pFeaturesToBeInstalled Additional features to be installed, can be empty.
+     * @return Option, never {@code null}
+     */
+    public static Option reusableKarafContainer(final KarafFeaturesOption... pFeaturesToBeInstalled) {
+        final ContentKey key = new ContentKey().add(karafUrl()).add(standardFeaturesUrl());
+        for (final KarafFeaturesOption features : pFeaturesToBeInstalled) {
+            key.add(features.getURL());
+            for (final String feature : features.getFeatures()) {
+                key.add(feature);
+            }
+        }
+        return karafDistribution(getDefault().getPath(getProperty("user.dir"), "target", "exam", key.build()),
+                pFeaturesToBeInstalled);
+    }
+
+    private static Option karafDistribution(final Path pUnpackDir, final KarafFeaturesOption... pFeaturesToBeInstalled) {
         return composite(
                 // KarafDistributionOption.debugConfiguration("5005", true),
                 karafDistributionConfiguration()
-                        .frameworkUrl(karafUrl)
+                        .frameworkUrl(karafUrl())
                         .unpackDirectory(pUnpackDir.toFile())
                         .useDeployFolder(false).runEmbedded(true),
                 logLevel(LogLevelOption.LogLevel.INFO),
-                features(maven()
-                        .groupId("org.apache.karaf.features")
-                        .artifactId("standard")
-                        .classifier("features")
-                        .type("xml")
-                        .versionAsInProject(), "scr", "config"),
-                composite(pFeaturesToBeInstalled),
-                keepRuntimeFolder()
+                features(standardFeaturesUrl(), "scr", "config"),
+                composite(pFeaturesToBeInstalled)
         );
     }
 
+    /**
+     * @return URL of the Karaf distribution, preferably pointing into the local Maven repository.
+     */
+    private static String karafUrl() {
+        final String url = MavenArtifactResolver.getInstance().resolve("org.apache.karaf", "apache-karaf", null, "tar.gz");
+        return url == null ? maven()
+                .groupId("org.apache.karaf")
+                .artifactId("apache-karaf").versionAsInProject()
+                .type("tar.gz").getURL() : url;
+    }
+
+    /**
+     * @return URL of the Karaf standard features, preferably pointing into the local Maven repository.
+     */
+    private static String standardFeaturesUrl() {
+        final String url = MavenArtifactResolver.getInstance().resolve("org.apache.karaf.features", "standard", "features", "xml");
+        return url == null ? maven()
+                .groupId("org.apache.karaf.features")
+                .artifactId("standard")
+                .classifier("features")
+                .type("xml")
+                .versionAsInProject().getURL() : url;
+    }
+
+    /**
+     * Provisions all bundles found in the directory specified, relative to the
+     * current working directory. Jars which are no OSGi bundles are skipped,
+     * bundles with the same symbolic name and version are provisioned only once
+     * and exporting bundles are provisioned before the bundles importing their
+     * packages, see {@link BundleDirectoryScanner}.
+     *
+     * @param pPath Path elements of the directory, relative to {@code user.dir}
+     * @return Option, never {@code null}
+     */
     public static Option provisionBundlesFromUserDir(final String... pPath) {
         final List<String> urls = new LinkedList<>();
         Path dir = getDefault().getPath(getProperty("user.dir"));
@@ -82,8 +169,8 @@ public class OptionsHelper {
             dir = dir.resolve(pathElement);
         }
 
-        try (final DirectoryStream<Path> stream = newDirectoryStream(dir, entry -> entry.getFileName().toString().endsWith(".jar"))) {
-            for (final Path jar : stream) {
+        try {
+            for (final Path jar : BundleDirectoryScanner.scan(dir)) {
                 urls.add(jar.toUri().toURL().toString());
             }
         } catch (final IOException e) {
@@ -107,15 +194,141 @@ public class OptionsHelper {
      * @return Option to be passed to the Pax-Exam test-container.
      */
     public static Option defaultOptions(final String pExaminee, final String... pDependencyComponent) {
+        final Option[] libraries = new Option[DEFAULT_LIBRARIES.length];
+        for (int i = 0; i < libraries.length; i++) {
+            libraries[i] = resolvedBundle(DEFAULT_LIBRARIES[i][0], DEFAULT_LIBRARIES[i][1]);
+        }
         return composite(examineeOption(pExaminee), dependenciesOption(pDependencyComponent),
-                mavenBundle("com.google.guava", "guava").versionAsInProject(),
-                mavenBundle("org.apache.commons", "commons-lang3").versionAsInProject(),
-                mavenBundle("org.objenesis", "objenesis").versionAsInProject(),
-                mavenBundle("org.mockito", "mockito-core").versionAsInProject(),
-                mavenBundle("net.bytebuddy", "byte-buddy").versionAsInProject(), // Necessary
-                // for
-                // Mockito
-                frameworkProperty("felix.bootdelegation.implicit").value("false"), junitBundles(),
+                composite(libraries), containerSettings());
+    }
+
+    /**
+     * Creates the same options as {@link #defaultOptions(String, String...)}
+     * asynchronously; the examinee, every dependency component and every
+     * library are resolved concurrently.
+     *
+     * @param pExaminee            The name of the component to be tested
+     * @param pDependencyComponent The names of the components which shall additionally be
+     *                             installed into the test-container; can be empty.
+     * @return Future of the option to be passed to the Pax-Exam test-container.
+     * @see #join(CompletableFuture[])
+     */
+    public static CompletableFuture<Option> defaultOptionsAsync(final String pExaminee, final String... pDependencyComponent) {
+        final List<CompletableFuture<Option>> options = new LinkedList<>();
+        options.add(AsyncOptions.supply(() -> examineeOption(pExaminee)));
+        for (final String component : pDependencyComponent) {
+            options.add(AsyncOptions.supply(() -> componentOption(component)));
+        }
+        for (final String[] library : DEFAULT_LIBRARIES) {
+            options.add(AsyncOptions.supply(() -> resolvedBundle(library[0], library[1])));
+        }
+        options.add(CompletableFuture.completedFuture(containerSettings()));
+        return AsyncOptions.all(options);
+    }
+
+    /**
+     * Scans the directory specified asynchronously, see
+     * {@link #provisionBundlesFromUserDir(String...)}.
+     *
+     * @param pPath Path elements of the directory, relative to {@code user.dir}
+     * @return Future of the option, never {@code null}
+     */
+    public static CompletableFuture<Option> provisionBundlesFromUserDirAsync(final String... pPath) {
+        return AsyncOptions.supply(() -> provisionBundlesFromUserDir(pPath));
+    }
+
+    /**
+     * Creates any option asynchronously on the pool shared by all asynchronous
+     * builds, for instance {@code async(OptionsHelper::mockitoBundles)}. The
+     * pool is bounded to the number of available processors unless the
+     * system property {@value AsyncOptions#THREADS_PROPERTY} specifies
+     * otherwise.
+     *
+     * @param pOption Task which creates the option, must not be {@code null}
+     * @return Future of the option, never {@code null}
+     */
+    public static CompletableFuture<Option> async(final Callable<Option> pOption) {
+        return AsyncOptions.supply(pOption);
+    }
+
+    /**
+     * Waits for the futures specified and combines their options into a
+     * composite option, which keeps the order of the futures. Meant to be
+     * called from a {@code @Configuration} method, after all futures have been
+     * started:
+     *
+     * <pre>
+     * return new Option[]{join(defaultOptionsAsync("ch.sourcepond.foo"),
+     *         stubService(Bar.class).withImpl(BarStub.class).buildAsync(),
+     *         async(OptionsHelper::mockitoBundles))};
+     * </pre>
+     *
+     * @param pOptions Futures, must not be {@code null}
+     * @return Composite option, never {@code null}
+     * @throws Exception The original exception of the first failed future.
+     */
+    @SafeVarargs
+    public static Option join(final CompletableFuture<Option>... pOptions) throws Exception {
+        final List<CompletableFuture<Option>> options = new ArrayList<>(pOptions.length);
+        for (final CompletableFuture<Option> option : pOptions) {
+            options.add(option);
+        }
+        return AsyncOptions.join(options);
+    }
+
+    /**
+     * Creates the same options as {@link #defaultOptions(String, String...)},
+     * except that from the libraries provisioned by default (Guava,
+     * commons-lang3 and Mockito with its dependencies) only those bundles are
+     * provisioned which are necessary to resolve the {@code Import-Package}
+     * headers of the examinee, its tests and the dependency components,
+     * including their transitive imports, see {@link ImportClosure}. If any of
+     * these artifacts is not available in the local Maven repository, the
+     * options returned are equal to {@link #defaultOptions(String, String...)}.
+     *
+     * @param pExaminee            The name of the component to be tested
+     * @param pDependencyComponent The names of the components which shall additionally be
+     *                             installed into the test-container; can be empty.
+     * @return Option to be passed to the Pax-Exam test-container.
+     */
+    public static Option minimalOptions(final String pExaminee, final String... pDependencyComponent) {
+        final MavenArtifactResolver resolver = MavenArtifactResolver.getInstance();
+        final List<String> roots = new LinkedList<>();
+        final String[] examinee = coordinates(pExaminee);
+        roots.add(resolver.resolve(examinee[0], examinee[1] + "-impl", "tests", "jar"));
+        for (final String component : concat(pExaminee, pDependencyComponent)) {
+            final String[] coordinates = coordinates(component);
+            roots.add(resolver.resolve(coordinates[0], coordinates[1] + "-api", null, "jar"));
+            roots.add(resolver.resolve(coordinates[0], coordinates[1] + "-impl", null, "jar"));
+        }
+
+        final Map<String, String> candidates = new LinkedHashMap<>();
+        for (final String[] library : DEFAULT_LIBRARIES) {
+            candidates.put(library[0] + ":" + library[1], resolver.resolve(library[0], library[1], null, "jar"));
+        }
+        if (roots.contains(null) || candidates.containsValue(null)) {
+            return defaultOptions(pExaminee, pDependencyComponent);
+        }
+
+        final List<Option> options = new LinkedList<>();
+        options.add(examineeOption(pExaminee));
+        options.add(dependenciesOption(pDependencyComponent));
+        for (final String library : ImportClosure.select(roots, candidates)) {
+            options.add(provision(candidates.get(library)));
+        }
+        options.add(containerSettings());
+        return composite(options.toArray(new Option[0]));
+    }
+
+    private static String[] concat(final String pFirst, final String[] pOthers) {
+        final String[] all = new String[pOthers.length + 1];
+        all[0] = pFirst;
+        System.arraycopy(pOthers, 0, all, 1, pOthers.length);
+        return all;
+    }
+
+    private static Option containerSettings() {
+        return composite(frameworkProperty("felix.bootdelegation.implicit").value("false"), junitBundles(),
 
                 // Override regression default; we use the logback.xml located
                 // in this jar
@@ -123,16 +336,15 @@ public class OptionsHelper {
     }
 
     public static Option mockitoBundles() {
-        return composite(mavenBundle().groupId("org.mockito").artifactId("mockito-core").versionAsInProject(),
-                mavenBundle().groupId("net.bytebuddy").artifactId("byte-buddy").versionAsInProject(),
-                mavenBundle().groupId("net.bytebuddy").artifactId("byte-buddy-agent").versionAsInProject(),
-                mavenBundle().groupId("org.objenesis").artifactId("objenesis").versionAsInProject());
+        return composite(resolvedBundle("org.mockito", "mockito-core"),
+                resolvedBundle("net.bytebuddy", "byte-buddy"),
+                resolvedBundle("net.bytebuddy", "byte-buddy-agent"),
+                resolvedBundle("org.objenesis", "objenesis"));
     }
 
     public static Option tinyBundles() {
-        return composite(mavenBundle().groupId("org.ops4j.pax.tinybundles").
-                        artifactId("tinybundles").versionAsInProject(),
-                mavenBundle().groupId("biz.aQute.bnd").artifactId("biz.aQute.bndlib").versionAsInProject());
+        return composite(resolvedBundle("org.ops4j.pax.tinybundles", "tinybundles"),
+                resolvedBundle("biz.aQute.bnd", "biz.aQute.bndlib"));
     }
 
     /**
@@ -142,10 +354,10 @@ public class OptionsHelper {
      * @return Option, never {@code null}
      */
     public static Option blueprintBundles() {
-        return composite(mavenBundle("org.apache.aries", "org.apache.aries.util").versionAsInProject(),
-                mavenBundle("org.apache.aries.proxy", "org.apache.aries.proxy.api").versionAsInProject(),
-                mavenBundle("org.apache.aries.proxy", "org.apache.aries.proxy.impl").versionAsInProject(),
-                mavenBundle("org.apache.aries.blueprint", "org.apache.aries.blueprint.core").versionAsInProject());
+        return composite(resolvedBundle("org.apache.aries", "org.apache.aries.util"),
+                resolvedBundle("org.apache.aries.proxy", "org.apache.aries.proxy.api"),
+                resolvedBundle("org.apache.aries.proxy", "org.apache.aries.proxy.impl"),
+                resolvedBundle("org.apache.aries.blueprint", "org.apache.aries.blueprint.core"));
     }
 
     /**
@@ -158,6 +370,60 @@ public class OptionsHelper {
         return new ServiceStubber<>(pServiceInterface);
     }
 
+    /**
+     * Creates an empty stub behaviour, see
+     * {@link ServiceStubber#withBehaviour(StubBehaviour)}.
+     *
+     * @return Stub behaviour, never {@code null}
+     */
+    public static StubBehaviour stubBehaviour() {
+        return new StubBehaviour();
+    }
+
+    /**
+     * Creates a set of service stubs which will be packed into a single
+     * stub-bundle.
+     *
+     * @return Service-Stub-Set, never {@code null}
+     */
+    public static ServiceStubSet stubServices() {
+        return new ServiceStubSet();
+    }
+
+    /**
+     * Distributes the test classes specified over the number of forks
+     * specified. Test classes whose {@link org.ops4j.pax.exam.Configuration}
+     * methods produce the same options are always assigned to the same fork,
+     * so they can share one container when they use
+     * {@code @ExamReactorStrategy(PerSuite.class)}. The resulting plan is also
+     * written to {@code target/exam-forks/fork-<n>.txt}; each file can be passed
+     * to surefire with {@code -Dsurefire.includesFile}.
+     *
+     * @param pForks       Number of forks, must be positive
+     * @param pTestClasses Pax-Exam test classes to be distributed
+     * @return List of test classes per fork, never {@code null}
+     */
+    public static List<List<Class<?>>> planForks(final int pForks, final Class<?>... pTestClasses) {
+        final List<List<Class<?>>> forks = new ForkPlanner(pTestClasses).plan(pForks);
+        ForkPlanner.write(getDefault().getPath(getProperty("user.dir"), "target", "exam-forks"), forks);
+        return forks;
+    }
+
+    /**
+     * Creates a provisioning option for the bundle specified. If the bundle can
+     * be found in the local Maven repository, it is provisioned directly from
+     * there, otherwise an mvn: URL with the version used in the project is
+     * provisioned.
+     *
+     * @param pGroupId    Group-Id, must not be {@code null}
+     * @param pArtifactId Artifact-Id, must not be {@code null}
+     * @return Option, never {@code null}
+     */
+    static Option resolvedBundle(final String pGroupId, final String pArtifactId) {
+        final String url = MavenArtifactResolver.getInstance().resolve(pGroupId, pArtifactId, null, "jar");
+        return url == null ? mavenBundle(pGroupId, pArtifactId).versionAsInProject() : provision(url);
+    }
+
     /**
      * @param pDependencyComponent
      * @return
@@ -176,8 +442,10 @@ public class OptionsHelper {
      */
     private static Option examineeOption(final String pComponentName) {
         final String[] coordinates = coordinates(pComponentName);
-        return composite(componentOption(pComponentName),
-                wrappedBundle(maven(coordinates[0], coordinates[1] + "-impl").classifier("tests")));
+        final String testsUrl = MavenArtifactResolver.getInstance().resolve(coordinates[0], coordinates[1] + "-impl", "tests", "jar");
+        return composite(componentOption(pComponentName), testsUrl == null ?
+                wrappedBundle(maven(coordinates[0], coordinates[1] + "-impl").classifier("tests")) :
+                wrappedBundle(testsUrl));
     }
 
     /**
@@ -186,8 +454,8 @@ public class OptionsHelper {
      */
     private static Option componentOption(final String pComponentName) {
         final String[] coordinates = coordinates(pComponentName);
-        return composite(mavenBundle(coordinates[0], coordinates[1] + "-api").versionAsInProject(),
-                mavenBundle(coordinates[0], coordinates[1] + "-impl").versionAsInProject());
+        return composite(resolvedBundle(coordinates[0], coordinates[1] + "-api"),
+                resolvedBundle(coordinates[0], coordinates[1] + "-impl"));
     }
 
     /**
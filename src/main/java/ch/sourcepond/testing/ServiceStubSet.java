@@ -0,0 +1,73 @@
+package ch.sourcepond.testing;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.ops4j.pax.exam.Option;
+
+/**
+ * <p>
+ * Packs several service stubs into a single stub-bundle. In contrast to
+ * building every {@link ServiceStubber} separately, only one bundle is
+ * generated, installed and resolved, and the bundles necessary to run the
+ * stub-bundle are provisioned only once.
+ * </p>
+ * 
+ * <pre>
+ * stubServices()
+ *     .add(stubService(FooService.class).withImpl(FooStub.class))
+ *     .add(stubService(BarService.class).withFactory(BarStubFactory.class).addProperty("name", "bar"))
+ *     .build();
+ * </pre>
+ */
+public class ServiceStubSet {
+	private final List<ServiceStubber<?>> stubbers = new LinkedList<>();
+
+	ServiceStubSet() {
+	}
+
+	/**
+	 * Adds the service stub specified to this set.
+	 * 
+	 * @param pStubber
+	 *            Service stubber, must not be {@code null}
+	 * @return This set
+	 */
+	public ServiceStubSet add(final ServiceStubber<?> pStubber) {
+		assertNotNull("Stubber should not be null!", pStubber);
+		stubbers.add(pStubber);
+		return this;
+	}
+
+	/**
+	 * Builds the stub-bundle which registers all stubbed services of this set.
+	 * 
+	 * @return {@link Option} instance, never {@code null}
+	 * @throws Exception
+	 *             Thrown, if something went wrong during bundle build.
+	 */
+	public Option build() throws Exception {
+		assertFalse("No service stubs have been added. Use add()", stubbers.isEmpty());
+		final StubBundleBuilder builder = new StubBundleBuilder();
+		for (final ServiceStubber<?> stubber : stubbers) {
+			stubber.addTo(builder);
+		}
+		return composite(builder.build(), StubBundleBuilder.supportBundles());
+	}
+
+	/**
+	 * Builds the stub-bundle asynchronously on a bounded pool shared by all
+	 * asynchronous builds. This set and its stubbers must not be modified until
+	 * the future returned has been completed.
+	 * 
+	 * @return Future of the {@link Option} instance, never {@code null}
+	 */
+	public CompletableFuture<Option> buildAsync() {
+		return AsyncOptions.supply(this::build);
+	}
+}
@@ -1,38 +1,27 @@
 package ch.sourcepond.testing;
 
-import static ch.sourcepond.testing.StubServiceActivator.IMPL_CLASS;
-import static ch.sourcepond.testing.StubServiceActivator.SERVICE_INTERFACE;
-import static ch.sourcepond.testing.StubServiceActivator.SERVICE_PROPERTIES;
-import static java.io.File.createTempFile;
+import static ch.sourcepond.testing.StubServiceActivator.CHURN_ATTRIBUTE;
+import static ch.sourcepond.testing.StubServiceActivator.METRICS_ATTRIBUTE;
+import static ch.sourcepond.testing.StubServiceActivator.SCOPE_ATTRIBUTE;
 import static java.lang.String.format;
-import static java.nio.file.Files.copy;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static javassist.ClassPool.getDefault;
-import static javassist.CtField.Initializer.byExpr;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.ops4j.pax.exam.CoreOptions.composite;
-import static org.ops4j.pax.exam.CoreOptions.mavenBundle;
-import static org.ops4j.pax.tinybundles.core.TinyBundles.bundle;
-import static org.ops4j.pax.tinybundles.core.TinyBundles.withBnd;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.InputStream;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.ops4j.pax.exam.Option;
-import org.ops4j.pax.exam.options.UrlProvisionOption;
-import org.ops4j.pax.tinybundles.core.TinyBundle;
 import org.osgi.framework.BundleActivator;
 
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.CtField;
-
 /**
  * <p>
  * The service stubber gives you the possibility to install a service stub into
@@ -42,20 +31,30 @@ import javassist.CtField;
  * </p>
  * 
  * <p>
- * Internally, an artificial bundle which contains a special
- * {@link BundleActivator} will be generated and installed into the OSGi
- * container. The {@link BundleActivator} exports a stub-service as specified
- * with this stubber.
+ * Internally, an artificial bundle which uses the generic
+ * {@link StubServiceActivator} as {@link BundleActivator} will be generated and
+ * installed into the OSGi container. The service interface and the
+ * implementation class are passed to the activator through the manifest of the
+ * generated bundle, so any number of stubs can be built in the same JVM.
+ * </p>
+ * 
+ * <p>
+ * Generated bundles are kept in a persistent, content-addressed cache (see
+ * {@link StubBundleCache}), so building an identical stub again is cheap, even
+ * in another JVM.
  * </p>
  */
 public class ServiceStubber<T> {
-	private static final String ENHANCED_ACTIVATOR_CLASS_NAME = "ch.sourcepond.$enhanced."
-			+ StubServiceActivator.class.getSimpleName();
 	private Class<? extends T> implementation;
 	private Class<? extends StubServiceFactory<T>> factory;
 	private final List<Class<?>> classes = new LinkedList<>();
 	private final Class<T> serviceInterface;
 	private final Properties properties = new Properties();
+	private StubScope scope = StubScope.SINGLETON;
+	private boolean recordMetrics;
+	private boolean transitiveClasses;
+	private Properties behaviour;
+	private double churnRate;
 
 	ServiceStubber(final Class<T> pServiceInterface) {
 		serviceInterface = pServiceInterface;
@@ -91,6 +90,95 @@ public class ServiceStubber<T> {
 		return this;
 	}
 
+	/**
+	 * Specifies when the service stub is created and destroyed. With any
+	 * other scope than {@link StubScope#SINGLETON}, the stub is registered
+	 * through an OSGi service factory, so no instance is created until the
+	 * service is actually requested. Instances created by a
+	 * {@link StubServiceFactory} are passed to
+	 * {@link StubServiceFactory#destroy(Object)} when they are released.
+	 * 
+	 * @param pScope
+	 *            Scope, must not be {@code null}
+	 * @return This service-stubber
+	 */
+	public ServiceStubber<T> withScope(final StubScope pScope) {
+		assertNotNull("Scope should not be null!", pScope);
+		scope = pScope;
+		return this;
+	}
+
+	/**
+	 * Wraps the registered stub into a recording proxy which counts the
+	 * acquisitions of the service and the calls and latencies of every
+	 * method. The recorded data can be queried through the
+	 * {@link StubServiceMetrics} service registered by the stub-bundle. The
+	 * stubbed service type must be an interface.
+	 * 
+	 * @return This service-stubber
+	 */
+	public ServiceStubber<T> recordMetrics() {
+		assertTrue(format("Metrics can only be recorded for interfaces; %s is a class", serviceInterface.getName()),
+				serviceInterface.isInterface());
+		recordMetrics = true;
+		return this;
+	}
+
+	/**
+	 * Lets the stubber collect all classes needed by the implementation or
+	 * factory class and by the classes added with {@link #addClass(Class)}, so
+	 * that helper classes don't need to be added manually. Only classes
+	 * loaded from the same location as the referencing class (for instance
+	 * {@code target/test-classes}) are added to the stub-bundle; the service
+	 * interface is never added. If a referenced class cannot be loaded, the
+	 * build fails immediately instead of inside the test-container.
+	 * 
+	 * @return This service-stubber
+	 */
+	public ServiceStubber<T> withTransitiveClasses() {
+		transitiveClasses = true;
+		return this;
+	}
+
+	/**
+	 * Lets the stub simulate the behaviour specified, for instance latencies,
+	 * failures, a concurrency limit or a rate limit. The stub is wrapped into a
+	 * proxy which applies the behaviour before each call is delegated; if
+	 * metrics are recorded, they include the simulated latencies. The stubbed
+	 * service type must be an interface.
+	 * 
+	 * @param pBehaviour
+	 *            Behaviour, must not be {@code null}
+	 * @return This service-stubber
+	 */
+	public ServiceStubber<T> withBehaviour(final StubBehaviour pBehaviour) {
+		assertNotNull("Behaviour should not be null!", pBehaviour);
+		assertTrue(format("Behaviour can only be simulated for interfaces; %s is a class", serviceInterface.getName()),
+				serviceInterface.isInterface());
+		behaviour = pBehaviour.toProperties();
+		return this;
+	}
+
+	/**
+	 * Lets the stub-bundle cause service events at the rate specified, in
+	 * order to exercise how the bundle under test copes with services which
+	 * come and go. A background thread cyclically modifies the properties of
+	 * the registered stub (property
+	 * {@value StubChurnMetrics#CHURN_GENERATION_PROPERTY}), unregisters it and
+	 * registers it again. The number of events and the time spent delivering
+	 * them can be queried through the {@link StubChurnMetrics} service
+	 * registered by the stub-bundle.
+	 * 
+	 * @param pEventsPerSecond
+	 *            Service events per second, must be positive
+	 * @return This service-stubber
+	 */
+	public ServiceStubber<T> withChurn(final double pEventsPerSecond) {
+		assertTrue("Churn rate must be positive", pEventsPerSecond > 0d);
+		churnRate = pEventsPerSecond;
+		return this;
+	}
+
 	public ServiceStubber<T> addClass(final Class<?> pClass) {
 		classes.add(pClass);
 		return this;
@@ -102,36 +190,31 @@ public class ServiceStubber<T> {
 	}
 
 	/**
-	 * @param pBundle
-	 * @throws Exception
+	 * Adds the stubbed service specified by this stubber to the stub-bundle
+	 * builder specified.
 	 */
-	static Option buildBundle(final TinyBundle pBundle) throws Exception {
-		try (final InputStream in = pBundle.build(withBnd())) {
-			final File bundle = createTempFile("test-bundle.", ".jar");
-			bundle.deleteOnExit();
-			copy(in, bundle.toPath(), REPLACE_EXISTING);
-			return new UrlProvisionOption(bundle.toURI().toURL().toExternalForm());
+	void addTo(final StubBundleBuilder pBuilder) throws Exception {
+		final Map<String, String> attributes = new HashMap<>();
+		attributes.put(SCOPE_ATTRIBUTE, scope.name());
+		if (recordMetrics) {
+			attributes.put(METRICS_ATTRIBUTE, Boolean.TRUE.toString());
 		}
+		if (churnRate > 0d) {
+			attributes.put(CHURN_ATTRIBUTE, Double.toString(churnRate));
+		}
+		final Class<?> impl = determineImplClass();
+		pBuilder.addService(serviceInterface, impl, transitiveClasses ? collectClasses(impl) : classes, properties,
+				behaviour, attributes);
 	}
 
-	private static void initField(final CtClass activatorCtClass, final String pName, final Class<?> pServiceInterface)
-			throws Exception {
-		final CtField field = activatorCtClass.getField(pName);
-		activatorCtClass.removeField(field);
-		activatorCtClass.addField(field, byExpr(format("%s.class", pServiceInterface.getName())));
-	}
-
-	private Class<?> enhanceActivatorClass(final Class<?> pImplClass) throws Exception {
-		final ClassPool pool = getDefault();
-		final CtClass activatorCtClass = pool.get(StubServiceActivator.class.getName());
-
-		if (!activatorCtClass.isFrozen()) {
-			activatorCtClass.setName(ENHANCED_ACTIVATOR_CLASS_NAME);
-			initField(activatorCtClass, SERVICE_INTERFACE, serviceInterface);
-			initField(activatorCtClass, IMPL_CLASS, pImplClass);
-			activatorCtClass.writeFile("target/test-classes");
+	private Collection<Class<?>> collectClasses(final Class<?> pImplClass) {
+		final Set<Class<?>> collected = new LinkedHashSet<>(ClassDependencies.collect(pImplClass));
+		for (final Class<?> cl : classes) {
+			collected.addAll(ClassDependencies.collect(cl));
 		}
-		return getClass().getClassLoader().loadClass(ENHANCED_ACTIVATOR_CLASS_NAME);
+		collected.remove(pImplClass);
+		collected.remove(serviceInterface);
+		return collected;
 	}
 
 	/**
@@ -143,30 +226,23 @@ public class ServiceStubber<T> {
 	 *             Thrown, if something went wrong during bundle build.
 	 */
 	public Option build() throws Exception {
-		final Class<?> impl = determineImplClass();
-		final TinyBundle bundle = bundle();
-		bundle.add(impl);
+		final StubBundleBuilder builder = new StubBundleBuilder();
+		addTo(builder);
 
-		if (!classes.isEmpty()) {
-			for (final Class<?> cl : classes) {
-				bundle.add(cl);
-			}
-		}
-
-		final ByteArrayOutputStream out = new ByteArrayOutputStream();
-		properties.store(out, "Service properties");
-		final Class<?> enhancedActivatorClass = enhanceActivatorClass(impl);
-
-		return composite(
-				buildBundle(bundle.add(impl).add(enhancedActivatorClass)
-						.set("Bundle-Activator", enhancedActivatorClass.getName())
-						.add(format("/%s", SERVICE_PROPERTIES), new ByteArrayInputStream(out.toByteArray()))),
+		// The support bundles must be available in order to run the
+		// stub-bundle
+		return composite(builder.build(), StubBundleBuilder.supportBundles());
+	}
 
-		// These bundles must be available in order to run the stub-bundle
-				mavenBundle("ch.sourcepond.testing", "bundle-test-support").versionAsInProject(),
-				mavenBundle("org.ops4j.pax.tinybundles", "tinybundles").versionAsInProject(),
-				mavenBundle("biz.aQute.bnd", "bndlib").versionAsInProject(),
-				mavenBundle("org.javassist", "javassist").versionAsInProject());
+	/**
+	 * Builds the final stub-bundle asynchronously on a bounded pool shared by
+	 * all asynchronous builds. This stubber must not be modified until the
+	 * future returned has been completed.
+	 * 
+	 * @return Future of the {@link Option} instance, never {@code null}
+	 */
+	public CompletableFuture<Option> buildAsync() {
+		return AsyncOptions.supply(this::build);
 	}
 
 	private Class<?> determineImplClass() {
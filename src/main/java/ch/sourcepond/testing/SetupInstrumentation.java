@@ -0,0 +1,89 @@
+package ch.sourcepond.testing;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.lang.Boolean.getBoolean;
+import static java.lang.System.getProperty;
+import static java.lang.System.nanoTime;
+import static java.nio.file.Paths.get;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * <p>
+ * Instrumentation of the test-container setup. The helpers of this library
+ * report timings, cache hits and misses and produced bundles of every
+ * {@link SetupStage} to all registered {@link SetupListener} instances.
+ * </p>
+ * <p>
+ * If the system property {@value #REPORT_PROPERTY} is set to {@code true}, a
+ * {@link SetupReport} is registered automatically. It aggregates all
+ * measurements of the JVM and writes them as JSON and CSV into the directory
+ * specified by {@value #REPORT_DIR_PROPERTY} (default:
+ * {@code ${user.dir}/target}) when the JVM shuts down. Writing the report is
+ * best effort; if it fails, no report is written and the shutdown continues.
+ * </p>
+ */
+public final class SetupInstrumentation {
+    public static final String REPORT_PROPERTY = "ch.sourcepond.testing.setupReport";
+    public static final String REPORT_DIR_PROPERTY = "ch.sourcepond.testing.setupReport.dir";
+    private static final List<SetupListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    static {
+        if (getBoolean(REPORT_PROPERTY)) {
+            final Path dir = get(getProperty(REPORT_DIR_PROPERTY, get(getProperty("user.dir"), "target").toString()));
+            final SetupReport report = new SetupReport();
+            LISTENERS.add(report);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    report.write(dir);
+                } catch (final UncheckedIOException e) {
+                    // Best effort only; never fail the shutdown of the test JVM because of the report
+                }
+            }, "SetupReport writer"));
+        }
+    }
+
+    private SetupInstrumentation() {
+        // No instances
+    }
+
+    public static void addListener(final SetupListener pListener) {
+        assertNotNull("Listener is null", pListener);
+        LISTENERS.add(pListener);
+    }
+
+    public static void removeListener(final SetupListener pListener) {
+        LISTENERS.remove(pListener);
+    }
+
+    /**
+     * @return Start time to be passed to {@link #completed(SetupStage, String, long)}.
+     */
+    static long start() {
+        return nanoTime();
+    }
+
+    static void completed(final SetupStage pStage, final String pDetail, final long pStart) {
+        if (!LISTENERS.isEmpty()) {
+            final long duration = nanoTime() - pStart;
+            for (final SetupListener listener : LISTENERS) {
+                listener.workCompleted(pStage, pDetail, duration);
+            }
+        }
+    }
+
+    static void cacheAccessed(final SetupStage pStage, final boolean pHit) {
+        for (final SetupListener listener : LISTENERS) {
+            listener.cacheAccessed(pStage, pHit);
+        }
+    }
+
+    static void bundleProduced(final SetupStage pStage, final String pLocation, final long pSize) {
+        for (final SetupListener listener : LISTENERS) {
+            listener.bundleProduced(pStage, pLocation, pSize);
+        }
+    }
+}
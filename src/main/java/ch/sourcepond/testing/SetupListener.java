@@ -0,0 +1,42 @@
+package ch.sourcepond.testing;
+
+/**
+ * Listener which is informed about the work done while the test-container
+ * configuration is being assembled. Register listeners with
+ * {@link SetupInstrumentation#addListener(SetupListener)}. All methods may be
+ * called concurrently and should return quickly.
+ */
+public interface SetupListener {
+
+    /**
+     * Called when a unit of work of the stage specified has been completed.
+     *
+     * @param pStage          Stage, never {@code null}
+     * @param pDetail         What has been done, for instance a cache key or an artifact coordinate
+     * @param pDurationNanos  Duration of the work in nanoseconds
+     */
+    default void workCompleted(final SetupStage pStage, final String pDetail, final long pDurationNanos) {
+        // noop by default
+    }
+
+    /**
+     * Called when a cache of the stage specified has been consulted.
+     *
+     * @param pStage Stage, never {@code null}
+     * @param pHit   {@code true} if the cache contained the requested entry
+     */
+    default void cacheAccessed(final SetupStage pStage, final boolean pHit) {
+        // noop by default
+    }
+
+    /**
+     * Called when a bundle has been produced by the stage specified.
+     *
+     * @param pStage    Stage, never {@code null}
+     * @param pLocation Location of the bundle
+     * @param pSize     Size of the bundle in bytes
+     */
+    default void bundleProduced(final SetupStage pStage, final String pLocation, final long pSize) {
+        // noop by default
+    }
+}
@@ -0,0 +1,118 @@
+package ch.sourcepond.testing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.util.Locale.ROOT;
+
+/**
+ * {@link SetupListener} which aggregates all measurements per
+ * {@link SetupStage} and writes them as {@code setup-report-<run>.json} and
+ * {@code setup-report-<run>.csv}.
+ */
+final class SetupReport implements SetupListener {
+    private final Map<SetupStage, StageStatistics> statistics = new EnumMap<>(SetupStage.class);
+
+    SetupReport() {
+        for (final SetupStage stage : SetupStage.values()) {
+            statistics.put(stage, new StageStatistics());
+        }
+    }
+
+    /**
+     * Statistics of a single stage.
+     */
+    private static final class StageStatistics {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder cacheHits = new LongAdder();
+        final LongAdder cacheMisses = new LongAdder();
+        final LongAdder bundles = new LongAdder();
+        final LongAdder bundleBytes = new LongAdder();
+    }
+
+    @Override
+    public void workCompleted(final SetupStage pStage, final String pDetail, final long pDurationNanos) {
+        final StageStatistics stats = statistics.get(pStage);
+        stats.count.increment();
+        stats.totalNanos.add(pDurationNanos);
+        stats.maxNanos.accumulate(pDurationNanos);
+    }
+
+    @Override
+    public void cacheAccessed(final SetupStage pStage, final boolean pHit) {
+        final StageStatistics stats = statistics.get(pStage);
+        (pHit ? stats.cacheHits : stats.cacheMisses).increment();
+    }
+
+    @Override
+    public void bundleProduced(final SetupStage pStage, final String pLocation, final long pSize) {
+        final StageStatistics stats = statistics.get(pStage);
+        stats.bundles.increment();
+        stats.bundleBytes.add(pSize);
+    }
+
+    /**
+     * Writes the JSON and the CSV report into the directory specified.
+     *
+     * @param pDirectory Target directory, will be created if necessary
+     */
+    void write(final Path pDirectory) {
+        final String run = format("%s-%s", new SimpleDateFormat("yyyyMMdd-HHmmss", ROOT).format(new Date()),
+                ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        try {
+            createDirectories(pDirectory);
+            try (final Writer json = newBufferedWriter(pDirectory.resolve(format("setup-report-%s.json", run)), UTF_8)) {
+                writeJson(json);
+            }
+            try (final Writer csv = newBufferedWriter(pDirectory.resolve(format("setup-report-%s.csv", run)), UTF_8)) {
+                writeCsv(csv);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeJson(final Writer pOut) throws IOException {
+        pOut.write("{\n  \"stages\": {");
+        String separator = "\n";
+        for (final Map.Entry<SetupStage, StageStatistics> entry : statistics.entrySet()) {
+            final StageStatistics stats = entry.getValue();
+            pOut.write(format(ROOT, "%s    \"%s\": {\"count\": %d, \"totalMillis\": %.3f, \"maxMillis\": %.3f, "
+                            + "\"cacheHits\": %d, \"cacheMisses\": %d, \"bundles\": %d, \"bundleBytes\": %d}",
+                    separator, entry.getKey(), stats.count.sum(), millis(stats.totalNanos.sum()),
+                    millis(stats.maxNanos.get()), stats.cacheHits.sum(), stats.cacheMisses.sum(),
+                    stats.bundles.sum(), stats.bundleBytes.sum()));
+            separator = ",\n";
+        }
+        pOut.write("\n  }\n}\n");
+    }
+
+    private void writeCsv(final Writer pOut) throws IOException {
+        pOut.write("stage,count,totalMillis,maxMillis,cacheHits,cacheMisses,bundles,bundleBytes\n");
+        for (final Map.Entry<SetupStage, StageStatistics> entry : statistics.entrySet()) {
+            final StageStatistics stats = entry.getValue();
+            pOut.write(format(ROOT, "%s,%d,%.3f,%.3f,%d,%d,%d,%d\n", entry.getKey(), stats.count.sum(),
+                    millis(stats.totalNanos.sum()), millis(stats.maxNanos.get()), stats.cacheHits.sum(),
+                    stats.cacheMisses.sum(), stats.bundles.sum(), stats.bundleBytes.sum()));
+        }
+    }
+
+    private static double millis(final long pNanos) {
+        return pNanos / 1_000_000d;
+    }
+}
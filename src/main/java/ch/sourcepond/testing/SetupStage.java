@@ -0,0 +1,25 @@
+package ch.sourcepond.testing;
+
+/**
+ * Stages of the test-container setup which are measured by
+ * {@link SetupInstrumentation}.
+ */
+public enum SetupStage {
+
+    /**
+     * Building stub-bundles with bnd, see {@link ServiceStubber#build()} and
+     * {@link ServiceStubSet#build()}.
+     */
+    STUB_BUILD,
+
+    /**
+     * Writing bundles with {@link BundleWriter}.
+     */
+    BUNDLE_WRITE,
+
+    /**
+     * Scanning directories for bundles, see
+     * {@link OptionsHelper#provisionBundlesFromUserDir(String...)}.
+     */
+    BUNDLE_SCAN
+}
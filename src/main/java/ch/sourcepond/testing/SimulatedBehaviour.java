@@ -0,0 +1,230 @@
+package ch.sourcepond.testing;
+
+import static java.lang.String.format;
+import static java.lang.System.nanoTime;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies a {@link StubBehaviour} to stub instances by wrapping them into
+ * dynamic proxies. The behaviour of every method is resolved once on
+ * construction. Waiting does not allocate: latencies are drawn from
+ * {@link ThreadLocalRandom}, the rate limit is a lock-free schedule of call
+ * slots, and callers park until their deadline and spin for the last few
+ * microseconds, because parking is too coarse for short latencies. The
+ * concurrency limit is a permit counter which is taken by CAS; callers without
+ * a permit poll it with an exponentially growing park time instead of
+ * enqueuing themselves like on a {@link java.util.concurrent.Semaphore},
+ * which would allocate a queue node per waiting call. The limit is therefore
+ * not fair, and a released permit may be noticed up to
+ * {@value #MAX_BACKOFF_NANOS} ns late.
+ */
+final class SimulatedBehaviour {
+	static final String ALL_METHODS = "*";
+	static final String LATENCY_PREFIX = "latency.";
+	static final String FAILURE_PREFIX = "failures.";
+	static final String CONCURRENCY = "concurrency";
+	static final String RATE = "rate";
+	static final String FIXED = "fixed";
+	static final String UNIFORM = "uniform";
+	static final String EXPONENTIAL = "exponential";
+	private static final long SPIN_NANOS = 50_000;
+	private static final long MIN_BACKOFF_NANOS = 1_000;
+	private static final long MAX_BACKOFF_NANOS = 1_000_000;
+	private final Class<?> serviceInterface;
+	private final Map<Method, MethodBehaviour> behaviours = new HashMap<>();
+	private final AtomicInteger permits;
+	private final long intervalNanos;
+	private final AtomicLong nextSlot = new AtomicLong(nanoTime());
+
+	SimulatedBehaviour(final Class<?> pServiceInterface, final Properties pProperties) {
+		serviceInterface = pServiceInterface;
+		for (final Method method : pServiceInterface.getMethods()) {
+			final String latency = lookup(pProperties, LATENCY_PREFIX, method.getName());
+			final String failures = lookup(pProperties, FAILURE_PREFIX, method.getName());
+			if (latency != null || failures != null) {
+				behaviours.put(method, new MethodBehaviour(latency, failures == null ? 0d : Double.parseDouble(failures)));
+			}
+		}
+		final String concurrency = pProperties.getProperty(CONCURRENCY);
+		permits = concurrency == null ? null : new AtomicInteger(Integer.parseInt(concurrency));
+		final String rate = pProperties.getProperty(RATE);
+		intervalNanos = rate == null ? 0 : (long) (1_000_000_000d / Double.parseDouble(rate));
+	}
+
+	private static String lookup(final Properties pProperties, final String pPrefix, final String pMethodName) {
+		final String value = pProperties.getProperty(pPrefix + pMethodName);
+		return value == null ? pProperties.getProperty(pPrefix + ALL_METHODS) : value;
+	}
+
+	/**
+	 * Wraps the stub instance specified into a proxy which applies this
+	 * behaviour.
+	 */
+	Object wrap(final Object pTarget) {
+		return Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface },
+				new Simulation(pTarget));
+	}
+
+	/**
+	 * Returns the stub instance wrapped by the proxy specified, or the object
+	 * specified if it is no simulating proxy.
+	 */
+	static Object unwrap(final Object pService) {
+		if (pService != null && Proxy.isProxyClass(pService.getClass())) {
+			final InvocationHandler handler = Proxy.getInvocationHandler(pService);
+			if (handler instanceof Simulation) {
+				return ((Simulation) handler).target;
+			}
+		}
+		return pService;
+	}
+
+	private void awaitSlot() {
+		if (intervalNanos > 0) {
+			final long now = nanoTime();
+			long slot;
+			long next;
+			do {
+				next = nextSlot.get();
+				// Unused slots of the past are not accumulated, so there are
+				// no bursts after idle periods
+				slot = next - now < 0 ? now : next;
+			} while (!nextSlot.compareAndSet(next, slot + intervalNanos));
+			awaitDeadline(slot);
+		}
+	}
+
+	private void acquirePermit() {
+		long backoff = MIN_BACKOFF_NANOS;
+		for (;;) {
+			final int available = permits.get();
+			if (available > 0) {
+				if (permits.compareAndSet(available, available - 1)) {
+					return;
+				}
+			} else {
+				LockSupport.parkNanos(backoff);
+				backoff = Math.min(backoff << 1, MAX_BACKOFF_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the deadline specified (see {@link System#nanoTime()}) has
+	 * been reached or the current thread has been interrupted.
+	 */
+	static void awaitDeadline(final long pDeadline) {
+		long remaining;
+		while ((remaining = pDeadline - nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+			if (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Invocation handler of the simulating proxy.
+	 */
+	private final class Simulation implements InvocationHandler {
+		final Object target;
+
+		Simulation(final Object pTarget) {
+			target = pTarget;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if (Object.class.equals(method.getDeclaringClass())) {
+				// Not simulated; the proxy has identity semantics like the
+				// recording proxy, only toString is forwarded
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					return target.toString();
+				}
+			}
+			final MethodBehaviour behaviour = behaviours.get(method);
+			awaitSlot();
+			if (permits != null) {
+				acquirePermit();
+			}
+			try {
+				if (behaviour != null) {
+					behaviour.apply(method);
+				}
+				return invokeTarget(method, args);
+			} finally {
+				if (permits != null) {
+					permits.incrementAndGet();
+				}
+			}
+		}
+
+		private Object invokeTarget(final Method pMethod, final Object[] pArgs) throws Throwable {
+			try {
+				return pMethod.invoke(target, pArgs);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Latency distribution and failure ratio of a single method.
+	 */
+	private static final class MethodBehaviour {
+		private final String distribution;
+		private final long first;
+		private final long second;
+		private final double failureRatio;
+
+		MethodBehaviour(final String pLatency, final double pFailureRatio) {
+			if (pLatency == null) {
+				distribution = FIXED;
+				first = 0;
+				second = 0;
+			} else {
+				final String[] elements = pLatency.split(":");
+				distribution = elements[0];
+				first = Long.parseLong(elements[1]);
+				second = elements.length > 2 ? Long.parseLong(elements[2]) : 0;
+			}
+			failureRatio = pFailureRatio;
+		}
+
+		private long latency() {
+			switch (distribution) {
+			case UNIFORM:
+				return first + ThreadLocalRandom.current().nextLong(second - first + 1);
+			case EXPONENTIAL:
+				return (long) (-first * Math.log(1d - ThreadLocalRandom.current().nextDouble()));
+			default:
+				return first;
+			}
+		}
+
+		void apply(final Method pMethod) {
+			final long latency = latency();
+			if (latency > 0) {
+				awaitDeadline(nanoTime() + latency);
+			}
+			if (failureRatio > 0d && ThreadLocalRandom.current().nextDouble() < failureRatio) {
+				throw new SimulatedFailureException(format("Simulated failure of %s", pMethod.getName()));
+			}
+		}
+	}
+}
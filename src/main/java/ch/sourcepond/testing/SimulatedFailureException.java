@@ -0,0 +1,13 @@
+package ch.sourcepond.testing;
+
+/**
+ * Thrown by a stubbed service to simulate a failure, see
+ * {@link StubBehaviour#withFailureRatio(String, double)}.
+ */
+public class SimulatedFailureException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public SimulatedFailureException(final String pMessage) {
+		super(pMessage);
+	}
+}
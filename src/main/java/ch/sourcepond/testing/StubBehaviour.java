@@ -0,0 +1,139 @@
+package ch.sourcepond.testing;
+
+import static ch.sourcepond.testing.SimulatedBehaviour.ALL_METHODS;
+import static ch.sourcepond.testing.SimulatedBehaviour.CONCURRENCY;
+import static ch.sourcepond.testing.SimulatedBehaviour.EXPONENTIAL;
+import static ch.sourcepond.testing.SimulatedBehaviour.FAILURE_PREFIX;
+import static ch.sourcepond.testing.SimulatedBehaviour.FIXED;
+import static ch.sourcepond.testing.SimulatedBehaviour.LATENCY_PREFIX;
+import static ch.sourcepond.testing.SimulatedBehaviour.RATE;
+import static ch.sourcepond.testing.SimulatedBehaviour.UNIFORM;
+import static java.lang.String.format;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Describes how a stubbed service behaves under load, see
+ * {@link ServiceStubber#withBehaviour(StubBehaviour)}. Latencies and failure
+ * ratios are specified per method name, or for all methods with
+ * {@value SimulatedBehaviour#ALL_METHODS}; a setting for a specific method
+ * takes precedence. A call passes the rate limit first, then waits for a free
+ * slot of the concurrency limit, then for its latency, and finally either
+ * fails with a {@link SimulatedFailureException} or is delegated to the stub.
+ * </p>
+ * 
+ * <pre>
+ * stubService(FooService.class).withImpl(FooStub.class)
+ *     .withBehaviour(stubBehaviour()
+ *         .withExponentialLatency("*", 2, MILLISECONDS)
+ *         .withFailureRatio("store", 0.01)
+ *         .withConcurrencyLimit(8)
+ *         .withRateLimit(1000))
+ *     .build();
+ * </pre>
+ */
+public class StubBehaviour {
+	private final Properties properties = new Properties();
+
+	StubBehaviour() {
+	}
+
+	private StubBehaviour latency(final String pMethod, final String pValue) {
+		assertNotNull("Method name should not be null!", pMethod);
+		properties.setProperty(LATENCY_PREFIX + pMethod, pValue);
+		return this;
+	}
+
+	/**
+	 * Every call of the method specified takes the latency specified.
+	 * 
+	 * @param pMethod
+	 *            Method name or {@value SimulatedBehaviour#ALL_METHODS}
+	 * @return This behaviour
+	 */
+	public StubBehaviour withFixedLatency(final String pMethod, final long pLatency, final TimeUnit pUnit) {
+		assertTrue("Latency must not be negative", pLatency >= 0);
+		return latency(pMethod, format("%s:%d", FIXED, pUnit.toNanos(pLatency)));
+	}
+
+	/**
+	 * Calls of the method specified take a latency which is uniformly
+	 * distributed between the minimum and maximum specified (inclusive).
+	 * 
+	 * @param pMethod
+	 *            Method name or {@value SimulatedBehaviour#ALL_METHODS}
+	 * @return This behaviour
+	 */
+	public StubBehaviour withUniformLatency(final String pMethod, final long pMin, final long pMax,
+			final TimeUnit pUnit) {
+		assertTrue("Minimum latency must not be negative", pMin >= 0);
+		assertTrue("Maximum latency must not be smaller than minimum latency", pMax >= pMin);
+		return latency(pMethod, format("%s:%d:%d", UNIFORM, pUnit.toNanos(pMin), pUnit.toNanos(pMax)));
+	}
+
+	/**
+	 * Calls of the method specified take an exponentially distributed latency
+	 * with the mean specified, like the service times of a queue.
+	 * 
+	 * @param pMethod
+	 *            Method name or {@value SimulatedBehaviour#ALL_METHODS}
+	 * @return This behaviour
+	 */
+	public StubBehaviour withExponentialLatency(final String pMethod, final long pMean, final TimeUnit pUnit) {
+		assertTrue("Mean latency must not be negative", pMean >= 0);
+		return latency(pMethod, format("%s:%d", EXPONENTIAL, pUnit.toNanos(pMean)));
+	}
+
+	/**
+	 * The fraction of calls of the method specified fails with a
+	 * {@link SimulatedFailureException}.
+	 * 
+	 * @param pMethod
+	 *            Method name or {@value SimulatedBehaviour#ALL_METHODS}
+	 * @param pRatio
+	 *            Ratio between 0 and 1
+	 * @return This behaviour
+	 */
+	public StubBehaviour withFailureRatio(final String pMethod, final double pRatio) {
+		assertNotNull("Method name should not be null!", pMethod);
+		assertTrue("Failure ratio must be between 0 and 1", pRatio >= 0d && pRatio <= 1d);
+		properties.setProperty(FAILURE_PREFIX + pMethod, Double.toString(pRatio));
+		return this;
+	}
+
+	/**
+	 * At most the number of calls specified are executed concurrently; further
+	 * callers block until a call has completed.
+	 * 
+	 * @return This behaviour
+	 */
+	public StubBehaviour withConcurrencyLimit(final int pMaxConcurrentCalls) {
+		assertTrue("Concurrency limit must be positive", pMaxConcurrentCalls > 0);
+		properties.setProperty(CONCURRENCY, Integer.toString(pMaxConcurrentCalls));
+		return this;
+	}
+
+	/**
+	 * Calls are admitted at the rate specified; callers exceeding the rate
+	 * block until their call is due.
+	 * 
+	 * @param pCallsPerSecond
+	 *            Calls per second, must be positive
+	 * @return This behaviour
+	 */
+	public StubBehaviour withRateLimit(final double pCallsPerSecond) {
+		assertTrue("Rate limit must be positive", pCallsPerSecond > 0d);
+		properties.setProperty(RATE, Double.toString(pCallsPerSecond));
+		return this;
+	}
+
+	Properties toProperties() {
+		final Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+}
@@ -0,0 +1,149 @@
+package ch.sourcepond.testing;
+
+import static ch.sourcepond.testing.OptionsHelper.resolvedBundle;
+import static ch.sourcepond.testing.StubServiceActivator.BEHAVIOUR_ATTRIBUTE;
+import static ch.sourcepond.testing.StubServiceActivator.STUB_SERVICE_HEADER;
+import static ch.sourcepond.testing.StubServiceActivator.stubServiceClause;
+import static java.lang.String.format;
+import static java.nio.file.Files.size;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+import static org.ops4j.pax.tinybundles.core.TinyBundles.bundle;
+import static org.ops4j.pax.tinybundles.core.TinyBundles.withBnd;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.options.UrlProvisionOption;
+import org.ops4j.pax.tinybundles.core.TinyBundle;
+
+/**
+ * Assembles a single stub-bundle which registers one or more stubbed services
+ * through the {@link StubServiceActivator}. Each added service contributes its
+ * classes, its service properties and one clause of the
+ * {@value StubServiceActivator#STUB_SERVICE_HEADER} header. Built bundles are
+ * normalized by the {@link JarNormalizer} and kept in the
+ * {@link StubBundleCache}, or in the {@link InMemoryBundleStore} if it is
+ * enabled. In-memory stub-bundles bypass the {@link StubBundleCache}; they
+ * are reused within the JVM only and built again by every test JVM.
+ */
+final class StubBundleBuilder {
+	private final TinyBundle bundle = bundle();
+	private final ContentKey key = new ContentKey().add(StubServiceActivator.class.getName());
+	private final StringBuilder header = new StringBuilder();
+	private int count;
+
+	/**
+	 * Creates a composite option which references all bundles necessary to
+	 * run a stub-bundle.
+	 * 
+	 * @return Option, never {@code null}
+	 */
+	static Option supportBundles() {
+		return composite(resolvedBundle("ch.sourcepond.testing", "bundle-test-support"),
+				resolvedBundle("org.ops4j.pax.tinybundles", "tinybundles"),
+				resolvedBundle("biz.aQute.bnd", "bndlib"));
+	}
+
+	/**
+	 * Returns the bundle cached under the key specified, or builds and caches
+	 * it if it is not available yet.
+	 * 
+	 * @param pKey
+	 *            Cache key, see {@link ContentKey}
+	 * @param pBundle
+	 *            Bundle to be built on a cache miss
+	 * @throws Exception
+	 */
+	static Option buildBundle(final String pKey, final TinyBundle pBundle) throws Exception {
+		if (InMemoryBundleStore.isEnabled()) {
+			return buildInMemory(pKey, pBundle);
+		}
+		final StubBundleCache cache = StubBundleCache.getInstance();
+		Path bundle = cache.lookup(pKey);
+		SetupInstrumentation.cacheAccessed(SetupStage.STUB_BUILD, bundle != null);
+		if (bundle == null) {
+			final long start = SetupInstrumentation.start();
+			try (final InputStream in = pBundle.build(withBnd())) {
+				bundle = cache.store(pKey, JarNormalizer.normalize(in));
+			}
+			SetupInstrumentation.completed(SetupStage.STUB_BUILD, pKey, start);
+			SetupInstrumentation.bundleProduced(SetupStage.STUB_BUILD, bundle.toString(), size(bundle));
+		}
+		return new UrlProvisionOption(bundle.toUri().toURL().toExternalForm());
+	}
+
+	private static Option buildInMemory(final String pKey, final TinyBundle pBundle) throws Exception {
+		final InMemoryBundleStore store = InMemoryBundleStore.getInstance();
+		String location = store.lookup(pKey);
+		SetupInstrumentation.cacheAccessed(SetupStage.STUB_BUILD, location != null);
+		if (location == null) {
+			final long start = SetupInstrumentation.start();
+			try (final InputStream in = pBundle.build(withBnd())) {
+				location = store.store(pKey, JarNormalizer.normalize(in));
+			}
+			SetupInstrumentation.completed(SetupStage.STUB_BUILD, pKey, start);
+			SetupInstrumentation.bundleProduced(SetupStage.STUB_BUILD, location, store.size(location));
+		}
+		return new UrlProvisionOption(location);
+	}
+
+	StubBundleBuilder addService(final Class<?> pServiceInterface, final Class<?> pImplClass,
+			final Collection<Class<?>> pClasses, final Properties pProperties, final Properties pBehaviour,
+			final Map<String, String> pAttributes) throws Exception {
+		final String propertiesEntry = format("service-%d.properties", count);
+		final Map<String, String> attributes = new HashMap<>(pAttributes);
+
+		key.add(pServiceInterface.getName()).add(pImplClass);
+		bundle.add(pImplClass);
+		for (final Class<?> cl : pClasses) {
+			key.add(cl);
+			bundle.add(cl);
+		}
+		addProperties(propertiesEntry, pProperties);
+		if (pBehaviour != null) {
+			final String behaviourEntry = format("behaviour-%d.properties", count);
+			addProperties(behaviourEntry, pBehaviour);
+			attributes.put(BEHAVIOUR_ATTRIBUTE, behaviourEntry);
+		}
+		count++;
+
+		if (header.length() > 0) {
+			header.append(',');
+		}
+		header.append(stubServiceClause(pServiceInterface, pImplClass, propertiesEntry, attributes));
+		return this;
+	}
+
+	/**
+	 * Adds the properties specified as entry to the bundle, see
+	 * {@link JarNormalizer#properties(Properties)}.
+	 */
+	private void addProperties(final String pEntry, final Properties pProperties) {
+		final byte[] content = JarNormalizer.properties(pProperties);
+		key.add(pEntry).add(content);
+		bundle.add(format("/%s", pEntry), new ByteArrayInputStream(content));
+	}
+
+	/**
+	 * Builds the stub-bundle, or takes it from the cache, and returns the
+	 * {@link Option} to install it. The support bundles are <em>not</em>
+	 * included, see {@link #supportBundles()}.
+	 * 
+	 * @return {@link Option} instance, never {@code null}
+	 * @throws Exception
+	 *             Thrown, if something went wrong during bundle build.
+	 */
+	Option build() throws Exception {
+		final String headerValue = header.toString();
+		return buildBundle(key.add(headerValue).build(),
+				bundle.set("Bundle-Activator", StubServiceActivator.class.getName())
+						.set("Import-Package", format("%s,*", StubServiceActivator.class.getPackage().getName()))
+						.set(STUB_SERVICE_HEADER, headerValue));
+	}
+}
@@ -0,0 +1,150 @@
+package ch.sourcepond.testing;
+
+import static java.lang.Long.getLong;
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.getProperty;
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.move;
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.setLastModifiedTime;
+import static java.nio.file.Files.size;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * Persistent, content-addressed cache for generated stub bundles. Bundles are
+ * stored as {@code <sha-256>.jar} (see {@link ContentKey}) in a machine wide
+ * directory, so identical stubs are built only once and are shared between
+ * JVMs and test classes.
+ * </p>
+ * 
+ * <p>
+ * The cache directory can be changed with the system property
+ * {@value #CACHE_DIR_PROPERTY} (default:
+ * {@code ${java.io.tmpdir}/ch.sourcepond.testing.stubs}). The total size of
+ * the cache is bounded by {@value #MAX_SIZE_PROPERTY} (bytes, default 64 MiB);
+ * least recently used bundles are evicted first.
+ * </p>
+ */
+final class StubBundleCache {
+	static final String CACHE_DIR_PROPERTY = "ch.sourcepond.testing.stubCache.dir";
+	static final String MAX_SIZE_PROPERTY = "ch.sourcepond.testing.stubCache.maxSize";
+	private static final long DEFAULT_MAX_SIZE = 64L * 1024L * 1024L;
+	private static final String SUFFIX = ".jar";
+	private static final StubBundleCache INSTANCE = new StubBundleCache(
+			Paths.get(getProperty(CACHE_DIR_PROPERTY,
+					Paths.get(getProperty("java.io.tmpdir"), "ch.sourcepond.testing.stubs").toString())),
+			getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+	private final Path directory;
+	private final long maxSize;
+
+	StubBundleCache(final Path pDirectory, final long pMaxSize) {
+		directory = pDirectory;
+		maxSize = pMaxSize;
+	}
+
+	static StubBundleCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the cached bundle for the key specified, or {@code null} if no
+	 * such bundle exists. A hit marks the bundle as recently used.
+	 */
+	Path lookup(final String pKey) throws IOException {
+		final Path bundle = directory.resolve(pKey + SUFFIX);
+		if (isRegularFile(bundle)) {
+			try {
+				setLastModifiedTime(bundle, FileTime.fromMillis(currentTimeMillis()));
+				return bundle;
+			} catch (final NoSuchFileException e) {
+				// Evicted by another process in the meantime
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the bundle read from the stream specified under the key
+	 * specified. The bundle is written to a temporary file first and then
+	 * atomically moved to its final location, so concurrent writers of the
+	 * same key never see a partially written bundle.
+	 */
+	Path store(final String pKey, final InputStream pBundle) throws IOException {
+		createDirectories(directory);
+		final Path bundle = directory.resolve(pKey + SUFFIX);
+		final Path tmp = createTempFile(directory, pKey, ".tmp");
+		try {
+			copy(pBundle, tmp, REPLACE_EXISTING);
+			try {
+				move(tmp, bundle, ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				move(tmp, bundle, REPLACE_EXISTING);
+			}
+		} finally {
+			deleteIfExists(tmp);
+		}
+		evict(bundle);
+		return bundle;
+	}
+
+	private void evict(final Path pKeep) throws IOException {
+		final List<Path> bundles = new ArrayList<>();
+		long total = 0;
+		try (final DirectoryStream<Path> stream = newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (final Path bundle : stream) {
+				bundles.add(bundle);
+				total += sizeOf(bundle);
+			}
+		}
+
+		if (total > maxSize) {
+			bundles.sort(Comparator.comparingLong(StubBundleCache::lastModified));
+			for (final Path bundle : bundles) {
+				if (total <= maxSize) {
+					break;
+				}
+				if (!bundle.equals(pKeep)) {
+					final long size = sizeOf(bundle);
+					if (deleteIfExists(bundle)) {
+						total -= size;
+					}
+				}
+			}
+		}
+	}
+
+	private static long sizeOf(final Path pBundle) throws IOException {
+		try {
+			return size(pBundle);
+		} catch (final NoSuchFileException e) {
+			return 0;
+		}
+	}
+
+	private static long lastModified(final Path pBundle) {
+		try {
+			return getLastModifiedTime(pBundle).toMillis();
+		} catch (final IOException e) {
+			return 0;
+		}
+	}
+}
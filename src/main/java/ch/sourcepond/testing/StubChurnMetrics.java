@@ -0,0 +1,65 @@
+package ch.sourcepond.testing;
+
+/**
+ * <p>
+ * Counters of a stubbed service which has been built with
+ * {@link ServiceStubber#withChurn(double)}. The stub-bundle registers one
+ * instance of this interface per churning stub as OSGi service; like
+ * {@link StubServiceMetrics}, it carries the name of the stubbed service
+ * interface as service property {@value StubServiceMetrics#STUB_INTERFACE_PROPERTY}.
+ * </p>
+ * 
+ * <p>
+ * Service events are delivered synchronously to all service listeners, so
+ * {@link #getEventNanos()} measures how long the framework and all
+ * listeners, including those of the bundle under test, took to process the
+ * events caused by the stub.
+ * </p>
+ */
+public interface StubChurnMetrics {
+
+	/**
+	 * Service property of a churning stub which is incremented on every
+	 * modification.
+	 */
+	String CHURN_GENERATION_PROPERTY = "stub.churn.generation";
+
+	/**
+	 * @return Name of the stubbed service interface, never {@code null}
+	 */
+	String getServiceInterface();
+
+	/**
+	 * @return Number of times the stub has been registered by the churn
+	 */
+	long getRegistrations();
+
+	/**
+	 * @return Number of times the properties of the stub have been modified
+	 */
+	long getModifications();
+
+	/**
+	 * @return Number of times the stub has been unregistered by the churn
+	 */
+	long getUnregistrations();
+
+	/**
+	 * @return Number of service events of the stub which have been delivered
+	 *         to the listener of the stub-bundle; each registration,
+	 *         modification and unregistration is delivered exactly once
+	 */
+	long getDeliveredEvents();
+
+	/**
+	 * @return Total nanoseconds spent registering, modifying and unregistering
+	 *         the stub, including the synchronous delivery of the resulting
+	 *         service events
+	 */
+	long getEventNanos();
+
+	/**
+	 * Resets all counters to zero.
+	 */
+	void reset();
+}
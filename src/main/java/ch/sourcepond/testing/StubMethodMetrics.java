@@ -0,0 +1,40 @@
+package ch.sourcepond.testing;
+
+/**
+ * Call metrics of a single method of a recorded stub, see
+ * {@link StubServiceMetrics#getMethodMetrics()}. Latencies are recorded in
+ * power-of-two buckets, so percentiles are accurate within a factor of two.
+ */
+public interface StubMethodMetrics {
+
+	/**
+	 * @return Number of calls, including failed ones
+	 */
+	long getCalls();
+
+	/**
+	 * @return Number of calls which have thrown an exception
+	 */
+	long getFailures();
+
+	/**
+	 * @return Sum of the latencies of all calls in nanoseconds
+	 */
+	long getTotalNanos();
+
+	/**
+	 * @return Highest latency of a single call in nanoseconds
+	 */
+	long getMaxNanos();
+
+	/**
+	 * Returns the latency below which the fraction of calls specified
+	 * completed.
+	 * 
+	 * @param pFraction
+	 *            Fraction between 0 and 1, for instance 0.99
+	 * @return Upper bound of the latency bucket in nanoseconds, or 0 if no
+	 *         calls have been recorded
+	 */
+	long getLatencyPercentile(double pFraction);
+}
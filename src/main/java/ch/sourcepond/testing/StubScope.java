@@ -0,0 +1,34 @@
+package ch.sourcepond.testing;
+
+/**
+ * Specifies when a stubbed service instance is created and destroyed, see
+ * {@link ServiceStubber#withScope(StubScope)}.
+ */
+public enum StubScope {
+
+	/**
+	 * One instance is created when the stub-bundle is started and destroyed
+	 * when it is stopped. This is the default.
+	 */
+	SINGLETON,
+
+	/**
+	 * One instance is shared between all consumers. It is created when the
+	 * service is requested for the first time and destroyed as soon as the
+	 * last consumer has released it.
+	 */
+	LAZY,
+
+	/**
+	 * Every consuming bundle gets its own instance, which is created on the
+	 * first request of the bundle and destroyed when the bundle releases the
+	 * service (OSGi {@code ServiceFactory}).
+	 */
+	BUNDLE,
+
+	/**
+	 * Every request gets its own instance, which is destroyed when it is
+	 * released (OSGi {@code PrototypeServiceFactory}).
+	 */
+	PROTOTYPE
+}
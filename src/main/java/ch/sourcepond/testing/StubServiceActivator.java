@@ -1,65 +1,404 @@
 package ch.sourcepond.testing;
 
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.io.InputStream;
+import java.net.URL;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.PrototypeServiceFactory;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
 
+/**
+ * Generic activator of a stub-bundle generated by {@link ServiceStubber} or
+ * {@link ServiceStubSet}. The services to be registered are read from the
+ * {@value #STUB_SERVICE_HEADER} manifest header of the stub-bundle; it contains
+ * one comma separated clause per service, for instance
+ * 
+ * <pre>
+ * Stub-Service: com.foo.Service;impl=com.foo.ServiceStub;properties=service-0.properties,
+ *  com.foo.OtherService;impl=com.foo.OtherServiceStub;properties=service-1.properties
+ * </pre>
+ * 
+ * The optional {@value #PROPERTIES_ATTRIBUTE} attribute points to an entry of
+ * the stub-bundle which contains the service properties. The optional
+ * {@value #SCOPE_ATTRIBUTE} attribute contains the name of a {@link StubScope}
+ * (default: {@link StubScope#SINGLETON}). If the optional
+ * {@value #METRICS_ATTRIBUTE} attribute is {@code true}, the stub is wrapped
+ * into a recording proxy and a {@link StubServiceMetrics} service is registered
+ * for it. The optional {@value #BEHAVIOUR_ATTRIBUTE} attribute points to an
+ * entry which describes a {@link StubBehaviour} to be simulated. The optional
+ * {@value #CHURN_ATTRIBUTE} attribute specifies the number of service events
+ * per second the stub causes by cyclically modifying, unregistering and
+ * registering itself; a {@link StubChurnMetrics} service is registered for it.
+ */
 public class StubServiceActivator implements BundleActivator {
-	static final String SERVICE_PROPERTIES = "service.properties";
-	static final String SERVICE_INTERFACE = "serviceInterface";
-	static final String IMPL_CLASS = "implClass";
+	static final String STUB_SERVICE_HEADER = "Stub-Service";
+	static final String IMPL_ATTRIBUTE = "impl";
+	static final String PROPERTIES_ATTRIBUTE = "properties";
+	static final String SCOPE_ATTRIBUTE = "scope";
+	static final String METRICS_ATTRIBUTE = "metrics";
+	static final String BEHAVIOUR_ATTRIBUTE = "behaviour";
+	static final String CHURN_ATTRIBUTE = "churn";
+	private static final long CHURN_SHUTDOWN_SECONDS = 5;
+	private final List<StubService> services = new LinkedList<>();
+	private ScheduledExecutorService churnScheduler;
 
-	// These will be initialized in the enhanced class (Javassist)
-	private Class<?> serviceInterface;
+	static String stubServiceClause(final Class<?> pServiceInterface, final Class<?> pImplClass,
+			final String pPropertiesEntry, final Map<String, String> pAttributes) {
+		final StringBuilder clause = new StringBuilder(pServiceInterface.getName()).append(';')
+				.append(IMPL_ATTRIBUTE).append('=').append(pImplClass.getName()).append(';')
+				.append(PROPERTIES_ATTRIBUTE).append('=').append(pPropertiesEntry);
+		for (final Map.Entry<String, String> attribute : new TreeMap<>(pAttributes).entrySet()) {
+			clause.append(';').append(attribute.getKey()).append('=').append(attribute.getValue());
+		}
+		return clause.toString();
+	}
+
+	@Override
+	public void start(final BundleContext context) throws Exception {
+		final Bundle bundle = context.getBundle();
+		final String header = bundle.getHeaders().get(STUB_SERVICE_HEADER);
+		if (header == null) {
+			throw new IllegalStateException(format("Bundle %s has no %s header", bundle.getSymbolicName(),
+					STUB_SERVICE_HEADER));
+		}
 
-	// These will be initialized in the enhanced class (Javassist)
-	private Class<?> implClass;
+		for (final String clause : header.split(",")) {
+			final StubService service = new StubService(bundle, clause);
+			services.add(service);
+			service.register(context);
+		}
 
-	@SuppressWarnings("rawtypes")
-	private StubServiceFactory factory;
-	private Object service;
+		for (final StubService service : services) {
+			if (service.churnRate > 0d) {
+				if (churnScheduler == null) {
+					churnScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+						final Thread thread = new Thread(r, format("Stub churn %s", bundle.getSymbolicName()));
+						thread.setDaemon(true);
+						return thread;
+					});
+				}
+				final long period = Math.max(1L, (long) (1_000_000_000d / service.churnRate));
+				churnScheduler.scheduleAtFixedRate(service::churn, period, period, NANOSECONDS);
+			}
+		}
+	}
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
-	public void start(final BundleContext context) throws Exception {
-		final Hashtable<String, String> serviceProperties = new Hashtable<>();
-		final InputStream in = getClass().getResourceAsStream(format("/%s", SERVICE_PROPERTIES));
-		if (in != null) {
-			final Properties tmp = new Properties();
-			try {
-				tmp.load(in);
-			} finally {
-				in.close();
+	public void stop(final BundleContext context) throws Exception {
+		if (churnScheduler != null) {
+			churnScheduler.shutdownNow();
+			churnScheduler.awaitTermination(CHURN_SHUTDOWN_SECONDS, SECONDS);
+			churnScheduler = null;
+		}
+		for (final StubService service : services) {
+			service.unregister();
+		}
+		services.clear();
+	}
+
+	/**
+	 * A single stubbed service as described by one clause of the
+	 * {@value StubServiceActivator#STUB_SERVICE_HEADER} header.
+	 */
+	private static class StubService {
+		private final Class<?> serviceInterface;
+		private final Class<?> implClass;
+		private final Hashtable<String, String> serviceProperties;
+		private final StubScope scope;
+		private final StubServiceRecorder recorder;
+		private final SimulatedBehaviour behaviour;
+		private final double churnRate;
+		private final StubServiceChurn churn;
+
+		@SuppressWarnings("rawtypes")
+		private StubServiceFactory factory;
+		private ServiceRegistration<?> registration;
+		private ServiceRegistration<?> metricsRegistration;
+		private ServiceRegistration<?> churnRegistration;
+		private BundleContext context;
+		private Object registered;
+		private long generation;
+		private boolean modified;
+		private Object service;
+
+		StubService(final Bundle pBundle, final String pClause) throws Exception {
+			final String[] elements = pClause.split(";");
+			final Map<String, String> attributes = new HashMap<>();
+			for (int i = 1; i < elements.length; i++) {
+				final String[] attribute = elements[i].split("=", 2);
+				if (attribute.length == 2) {
+					attributes.put(attribute[0].trim(), attribute[1].trim());
+				}
 			}
+
+			final String implClassName = attributes.get(IMPL_ATTRIBUTE);
+			if (implClassName == null) {
+				throw new IllegalStateException(format("No %s attribute specified in clause '%s' of bundle %s",
+						IMPL_ATTRIBUTE, pClause.trim(), pBundle.getSymbolicName()));
+			}
+
+			serviceInterface = pBundle.loadClass(elements[0].trim());
+			implClass = pBundle.loadClass(implClassName);
+			serviceProperties = loadServiceProperties(pBundle, attributes.get(PROPERTIES_ATTRIBUTE));
+			final String behaviourEntry = attributes.get(BEHAVIOUR_ATTRIBUTE);
+			behaviour = behaviourEntry == null ? null
+					: new SimulatedBehaviour(serviceInterface, loadProperties(pBundle, behaviourEntry));
+			final String scopeName = attributes.get(SCOPE_ATTRIBUTE);
+			scope = scopeName == null ? StubScope.SINGLETON : StubScope.valueOf(scopeName);
+			recorder = Boolean.parseBoolean(attributes.get(METRICS_ATTRIBUTE))
+					? new StubServiceRecorder(serviceInterface) : null;
+			final String churnRateValue = attributes.get(CHURN_ATTRIBUTE);
+			churnRate = churnRateValue == null ? 0d : Double.parseDouble(churnRateValue);
+			churn = churnRate > 0d ? new StubServiceChurn(serviceInterface) : null;
+		}
+
+		private static Properties loadProperties(final Bundle pBundle, final String pEntry) throws Exception {
+			final Properties properties = new Properties();
+			final URL entry = pEntry == null ? null : pBundle.getEntry(format("/%s", pEntry));
+			if (entry != null) {
+				try (final InputStream in = entry.openStream()) {
+					properties.load(in);
+				}
+			}
+			return properties;
+		}
+
+		private static Hashtable<String, String> loadServiceProperties(final Bundle pBundle, final String pEntry)
+				throws Exception {
+			final Hashtable<String, String> serviceProperties = new Hashtable<>();
+			final Properties tmp = loadProperties(pBundle, pEntry);
 			final Enumeration<?> e = tmp.propertyNames();
 			while (e.hasMoreElements()) {
 				final String name = (String) e.nextElement();
 				serviceProperties.put(name, tmp.getProperty(name));
 			}
+			return serviceProperties;
 		}
 
-		if (StubServiceFactory.class.isAssignableFrom(implClass)) {
-			factory = (StubServiceFactory<?>) implClass.newInstance();
-			service = factory.create();
-		} else {
-			service = implClass.newInstance();
+		synchronized void register(final BundleContext pContext) throws Exception {
+			final long start = System.nanoTime();
+			context = pContext;
+			if (StubServiceFactory.class.isAssignableFrom(implClass)) {
+				factory = (StubServiceFactory<?>) implClass.newInstance();
+			}
+
+			switch (scope) {
+			case LAZY:
+				registered = new LazyServiceFactory();
+				break;
+			case BUNDLE:
+				registered = new BundleServiceFactory();
+				break;
+			case PROTOTYPE:
+				registered = new PrototypeStubServiceFactory();
+				break;
+			default:
+				service = create();
+				// Registered through a factory in order to count acquisitions
+				registered = recorder == null ? service : new SingletonServiceFactory();
+			}
+			if (churn != null) {
+				serviceProperties.put(StubChurnMetrics.CHURN_GENERATION_PROPERTY, Long.toString(generation));
+				serviceProperties.put(StubServiceChurn.CHURN_ID_PROPERTY, churn.id());
+			}
+			registration = pContext.registerService(serviceInterface.getName(), registered, serviceProperties);
+			if (churn != null) {
+				// Added after the initial registration, so every delivered event
+				// corresponds to exactly one step counted by the churn
+				pContext.addServiceListener(churn, churn.filter());
+			}
+
+			if (recorder != null) {
+				recorder.registered(System.nanoTime() - start);
+				final Hashtable<String, String> metricsProperties = new Hashtable<>();
+				metricsProperties.put(StubServiceMetrics.STUB_INTERFACE_PROPERTY, serviceInterface.getName());
+				metricsRegistration = pContext.registerService(StubServiceMetrics.class.getName(), recorder,
+						metricsProperties);
+			}
+			if (churn != null) {
+				final Hashtable<String, String> churnProperties = new Hashtable<>();
+				churnProperties.put(StubServiceMetrics.STUB_INTERFACE_PROPERTY, serviceInterface.getName());
+				churnRegistration = pContext.registerService(StubChurnMetrics.class.getName(), churn,
+						churnProperties);
+			}
 		}
 
-		context.registerService((Class) serviceInterface, service, serviceProperties);
-	}
+		/**
+		 * Performs the next step of the churn cycle: modify the properties of
+		 * the registered stub, unregister it, register it again.
+		 */
+		synchronized void churn() {
+			if (context == null) {
+				return;
+			}
+			final long start = System.nanoTime();
+			try {
+				if (registration == null) {
+					registration = context.registerService(serviceInterface.getName(), registered, serviceProperties);
+					modified = false;
+					churn.registered(System.nanoTime() - start);
+				} else if (modified) {
+					registration.unregister();
+					registration = null;
+					churn.unregistered(System.nanoTime() - start);
+				} else {
+					serviceProperties.put(StubChurnMetrics.CHURN_GENERATION_PROPERTY, Long.toString(++generation));
+					registration.setProperties(serviceProperties);
+					modified = true;
+					churn.modified(System.nanoTime() - start);
+				}
+			} catch (final IllegalStateException e) {
+				// Stub-bundle is being stopped
+			}
+		}
 
-	@SuppressWarnings("unchecked")
-	@Override
-	public void stop(final BundleContext context) throws Exception {
-		if (factory != null && service != null) {
-			factory.destroy(service);
+		Object create() {
+			final Object instance;
+			try {
+				instance = factory == null ? implClass.newInstance() : factory.create();
+			} catch (final InstantiationException | IllegalAccessException e) {
+				throw new IllegalStateException(format("Stub %s could not be instantiated", implClass.getName()),
+						e);
+			}
+			final Object simulated = behaviour == null ? instance : behaviour.wrap(instance);
+			return recorder == null ? simulated : recorder.wrap(simulated);
+		}
+
+		@SuppressWarnings("unchecked")
+		void destroy(final Object pService) {
+			if (factory != null && pService != null) {
+				factory.destroy(SimulatedBehaviour.unwrap(StubServiceRecorder.unwrap(pService)));
+			}
+		}
+
+		void acquired() {
+			if (recorder != null) {
+				recorder.acquired();
+			}
+		}
+
+		void released() {
+			if (recorder != null) {
+				recorder.released();
+			}
+		}
+
+		synchronized void unregister() {
+			try {
+				if (churn != null && context != null) {
+					context.removeServiceListener(churn);
+				}
+				if (churnRegistration != null) {
+					churnRegistration.unregister();
+				}
+				if (metricsRegistration != null) {
+					metricsRegistration.unregister();
+				}
+				if (registration != null) {
+					// Releases all instances created through a service factory
+					registration.unregister();
+				}
+			} catch (final IllegalStateException e) {
+				// Already unregistered
+			} finally {
+				context = null;
+				churnRegistration = null;
+				metricsRegistration = null;
+				registration = null;
+				destroy(service);
+				service = null;
+			}
 		}
-	}
 
+		/**
+		 * Returns the eagerly created instance; only used to count
+		 * acquisitions.
+		 */
+		private class SingletonServiceFactory implements ServiceFactory<Object> {
+
+			@Override
+			public Object getService(final Bundle bundle, final ServiceRegistration<Object> registration) {
+				acquired();
+				return service;
+			}
+
+			@Override
+			public void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration,
+					final Object service) {
+				released();
+			}
+		}
+
+		/**
+		 * Creates a single, shared instance on the first request and destroys
+		 * it when the last consumer has released it.
+		 */
+		private class LazyServiceFactory implements ServiceFactory<Object> {
+			private Object instance;
+			private int users;
+
+			@Override
+			public synchronized Object getService(final Bundle bundle, final ServiceRegistration<Object> registration) {
+				if (instance == null) {
+					instance = create();
+				}
+				users++;
+				acquired();
+				return instance;
+			}
+
+			@Override
+			public synchronized void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration,
+					final Object service) {
+				released();
+				if (--users == 0) {
+					destroy(instance);
+					instance = null;
+				}
+			}
+		}
+
+		/**
+		 * Creates an instance per consuming bundle.
+		 */
+		private class BundleServiceFactory implements ServiceFactory<Object> {
+
+			@Override
+			public Object getService(final Bundle bundle, final ServiceRegistration<Object> registration) {
+				acquired();
+				return create();
+			}
+
+			@Override
+			public void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration,
+					final Object service) {
+				released();
+				destroy(service);
+			}
+		}
+
+		/**
+		 * Creates an instance per request.
+		 */
+		private class PrototypeStubServiceFactory extends BundleServiceFactory
+				implements PrototypeServiceFactory<Object> {
+		}
+	}
 }
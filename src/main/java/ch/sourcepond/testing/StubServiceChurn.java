@@ -0,0 +1,107 @@
+package ch.sourcepond.testing;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+
+/**
+ * Counts the registrations, modifications and unregistrations performed by
+ * the churn of a stubbed service, and the service events of the stub which
+ * the framework actually delivered. All counters are lock-free.
+ */
+final class StubServiceChurn implements StubChurnMetrics, ServiceListener {
+
+	/**
+	 * Service property which identifies the registrations of exactly one
+	 * churning stub, so that the listener of another stub of the same service
+	 * interface never sees, and counts, its events.
+	 */
+	static final String CHURN_ID_PROPERTY = "stub.churn.id";
+	private final Class<?> serviceInterface;
+	private final String id = UUID.randomUUID().toString();
+	private final LongAdder registrations = new LongAdder();
+	private final LongAdder modifications = new LongAdder();
+	private final LongAdder unregistrations = new LongAdder();
+	private final LongAdder deliveredEvents = new LongAdder();
+	private final LongAdder eventNanos = new LongAdder();
+
+	StubServiceChurn(final Class<?> pServiceInterface) {
+		serviceInterface = pServiceInterface;
+	}
+
+	/**
+	 * @return Value of {@value #CHURN_ID_PROPERTY} of this stub, never
+	 *         {@code null}
+	 */
+	String id() {
+		return id;
+	}
+
+	/**
+	 * @return Filter which matches the registrations of this stub only
+	 */
+	String filter() {
+		return String.format("(&(objectClass=%s)(%s=%s))", serviceInterface.getName(), CHURN_ID_PROPERTY, id);
+	}
+
+	void registered(final long pNanos) {
+		registrations.increment();
+		eventNanos.add(pNanos);
+	}
+
+	void modified(final long pNanos) {
+		modifications.increment();
+		eventNanos.add(pNanos);
+	}
+
+	void unregistered(final long pNanos) {
+		unregistrations.increment();
+		eventNanos.add(pNanos);
+	}
+
+	@Override
+	public void serviceChanged(final ServiceEvent event) {
+		deliveredEvents.increment();
+	}
+
+	@Override
+	public String getServiceInterface() {
+		return serviceInterface.getName();
+	}
+
+	@Override
+	public long getRegistrations() {
+		return registrations.sum();
+	}
+
+	@Override
+	public long getModifications() {
+		return modifications.sum();
+	}
+
+	@Override
+	public long getUnregistrations() {
+		return unregistrations.sum();
+	}
+
+	@Override
+	public long getDeliveredEvents() {
+		return deliveredEvents.sum();
+	}
+
+	@Override
+	public long getEventNanos() {
+		return eventNanos.sum();
+	}
+
+	@Override
+	public void reset() {
+		registrations.reset();
+		modifications.reset();
+		unregistrations.reset();
+		deliveredEvents.reset();
+		eventNanos.reset();
+	}
+}
@@ -0,0 +1,75 @@
+package ch.sourcepond.testing;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Runtime metrics of a stubbed service which has been built with
+ * {@link ServiceStubber#recordMetrics()}. The stub-bundle registers one
+ * instance of this interface per recorded stub as OSGi service; the name of
+ * the stubbed service interface is available as service property
+ * {@value #STUB_INTERFACE_PROPERTY}, so a test can look up the metrics of a
+ * particular stub, for instance
+ * </p>
+ * 
+ * <pre>
+ * &#64;Inject
+ * &#64;Filter("(stub.interface=com.foo.Service)")
+ * private StubServiceMetrics metrics;
+ * </pre>
+ */
+public interface StubServiceMetrics {
+
+	/**
+	 * Service property which contains the name of the stubbed service
+	 * interface.
+	 */
+	String STUB_INTERFACE_PROPERTY = "stub.interface";
+
+	/**
+	 * @return Name of the stubbed service interface, never {@code null}
+	 */
+	String getServiceInterface();
+
+	/**
+	 * @return Nanoseconds it took to create and register the stub when the
+	 *         stub-bundle was started
+	 */
+	long getRegistrationNanos();
+
+	/**
+	 * @return How many times the stub has been acquired through the OSGi
+	 *         service registry
+	 */
+	long getAcquisitions();
+
+	/**
+	 * @return How many times the stub has been released through the OSGi
+	 *         service registry
+	 */
+	long getReleases();
+
+	/**
+	 * Returns the metrics of all methods of the stubbed service interface.
+	 * Methods are identified by their name and parameter types, for instance
+	 * {@code echo(java.lang.String)}.
+	 * 
+	 * @return Unmodifiable map, never {@code null}
+	 */
+	Map<String, StubMethodMetrics> getMethodMetrics();
+
+	/**
+	 * Returns the total number of calls of all methods with the name
+	 * specified, regardless of their parameter types.
+	 * 
+	 * @param pMethodName
+	 *            Method name, must not be {@code null}
+	 * @return Number of calls
+	 */
+	long getCalls(String pMethodName);
+
+	/**
+	 * Resets all counters except the registration time.
+	 */
+	void reset();
+}
@@ -0,0 +1,247 @@
+package ch.sourcepond.testing;
+
+import static java.lang.System.nanoTime;
+import static java.util.Collections.unmodifiableMap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the metrics of a stubbed service by wrapping the stub instances
+ * into dynamic proxies. All counters are lock-free; the recorder of a method
+ * is looked up in a map which is never modified after construction.
+ */
+final class StubServiceRecorder implements StubServiceMetrics {
+	private static final int BUCKETS = 64;
+	private final Class<?> serviceInterface;
+	private final Map<Method, MethodRecorder> recorders = new HashMap<>();
+	private final Map<String, StubMethodMetrics> metrics;
+	private final LongAdder acquisitions = new LongAdder();
+	private final LongAdder releases = new LongAdder();
+	private volatile long registrationNanos;
+
+	StubServiceRecorder(final Class<?> pServiceInterface) {
+		serviceInterface = pServiceInterface;
+		final Map<String, StubMethodMetrics> byName = new TreeMap<>();
+		for (final Method method : pServiceInterface.getMethods()) {
+			final MethodRecorder recorder = new MethodRecorder();
+			recorders.put(method, recorder);
+			byName.put(signature(method), recorder);
+		}
+		metrics = unmodifiableMap(byName);
+	}
+
+	private static String signature(final Method pMethod) {
+		final StringBuilder signature = new StringBuilder(pMethod.getName()).append('(');
+		final Class<?>[] parameterTypes = pMethod.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0) {
+				signature.append(',');
+			}
+			signature.append(parameterTypes[i].getName());
+		}
+		return signature.append(')').toString();
+	}
+
+	/**
+	 * Wraps the stub instance specified into a recording proxy.
+	 */
+	Object wrap(final Object pTarget) {
+		return Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface },
+				new Recording(pTarget));
+	}
+
+	/**
+	 * Returns the stub instance wrapped by the proxy specified, or the object
+	 * specified if it is no recording proxy.
+	 */
+	static Object unwrap(final Object pService) {
+		if (pService != null && Proxy.isProxyClass(pService.getClass())) {
+			final InvocationHandler handler = Proxy.getInvocationHandler(pService);
+			if (handler instanceof Recording) {
+				return ((Recording) handler).target;
+			}
+		}
+		return pService;
+	}
+
+	void registered(final long pNanos) {
+		registrationNanos = pNanos;
+	}
+
+	void acquired() {
+		acquisitions.increment();
+	}
+
+	void released() {
+		releases.increment();
+	}
+
+	@Override
+	public String getServiceInterface() {
+		return serviceInterface.getName();
+	}
+
+	@Override
+	public long getRegistrationNanos() {
+		return registrationNanos;
+	}
+
+	@Override
+	public long getAcquisitions() {
+		return acquisitions.sum();
+	}
+
+	@Override
+	public long getReleases() {
+		return releases.sum();
+	}
+
+	@Override
+	public Map<String, StubMethodMetrics> getMethodMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public long getCalls(final String pMethodName) {
+		long calls = 0;
+		for (final Map.Entry<Method, MethodRecorder> entry : recorders.entrySet()) {
+			if (entry.getKey().getName().equals(pMethodName)) {
+				calls += entry.getValue().getCalls();
+			}
+		}
+		return calls;
+	}
+
+	@Override
+	public void reset() {
+		acquisitions.reset();
+		releases.reset();
+		for (final MethodRecorder recorder : recorders.values()) {
+			recorder.reset();
+		}
+	}
+
+	/**
+	 * Invocation handler of the recording proxy. The proxy has identity
+	 * semantics for {@link Object#equals(Object)} and
+	 * {@link Object#hashCode()}, like the stub instance when it is not
+	 * recorded; the registry and trackers rely on that. Only
+	 * {@link Object#toString()} is forwarded to the target.
+	 */
+	private final class Recording implements InvocationHandler {
+		final Object target;
+
+		Recording(final Object pTarget) {
+			target = pTarget;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if (Object.class.equals(method.getDeclaringClass())) {
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					return target.toString();
+				}
+			}
+			final MethodRecorder recorder = recorders.get(method);
+			final long start = recorder == null ? 0 : nanoTime();
+			boolean failed = false;
+			try {
+				return method.invoke(target, args);
+			} catch (final InvocationTargetException e) {
+				failed = true;
+				throw e.getCause();
+			} finally {
+				if (recorder != null) {
+					recorder.record(nanoTime() - start, failed);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Metrics of a single method.
+	 */
+	private static final class MethodRecorder implements StubMethodMetrics {
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+		void record(final long pNanos, final boolean pFailed) {
+			calls.increment();
+			if (pFailed) {
+				failures.increment();
+			}
+			totalNanos.add(pNanos);
+			maxNanos.accumulate(pNanos);
+			// Bucket i contains latencies in [2^i, 2^(i+1))
+			buckets.incrementAndGet(pNanos <= 0 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(pNanos));
+		}
+
+		void reset() {
+			calls.reset();
+			failures.reset();
+			totalNanos.reset();
+			maxNanos.reset();
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets.set(i, 0);
+			}
+		}
+
+		@Override
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		@Override
+		public long getFailures() {
+			return failures.sum();
+		}
+
+		@Override
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		@Override
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		@Override
+		public long getLatencyPercentile(final double pFraction) {
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				total += buckets.get(i);
+			}
+			if (total == 0) {
+				return 0;
+			}
+			// At least one latency, so the result is never the bound of an empty bucket
+			final long threshold = Math.max(1, (long) Math.ceil(total * Math.min(1d, Math.max(0d, pFraction))));
+			long count = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				count += buckets.get(i);
+				if (count >= threshold) {
+					return i >= BUCKETS - 2 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+	}
+}
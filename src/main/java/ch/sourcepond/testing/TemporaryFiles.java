@@ -0,0 +1,49 @@
+package ch.sourcepond.testing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+
+/**
+ * Creates temporary jar files which are deleted when the JVM terminates. In
+ * contrast to {@link java.io.File#deleteOnExit()}, a single shutdown hook is
+ * used for all files and released files are forgotten immediately, so the
+ * bookkeeping does not grow without bounds.
+ */
+final class TemporaryFiles {
+    private static final Set<Path> FILES = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (final Path file : FILES) {
+                delete(file);
+            }
+        }, "TemporaryFiles cleaner"));
+    }
+
+    private TemporaryFiles() {
+        // No instances
+    }
+
+    static Path createTempJar(final String pPrefix) throws IOException {
+        final Path file = createTempFile(pPrefix, ".jar");
+        FILES.add(file);
+        return file;
+    }
+
+    /**
+     * Deletes the temporary file specified immediately.
+     */
+    static void delete(final Path pFile) {
+        FILES.remove(pFile);
+        try {
+            deleteIfExists(pFile);
+        } catch (final IOException e) {
+            // Best effort only
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ch.sourcepond.testing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.newOutputStream;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the deduplication and ordering of {@link BundleDirectoryScanner}.
+ */
+public class BundleDirectoryScannerTest {
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = createTempDirectory("bundle-directory-scanner-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (final DirectoryStream<Path> stream = newDirectoryStream(directory)) {
+            for (final Path child : stream) {
+                delete(child);
+            }
+        }
+        delete(directory);
+    }
+
+    private Path jar(final String pName, final String... pHeaders) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        for (int i = 0; i < pHeaders.length; i += 2) {
+            manifest.getMainAttributes().putValue(pHeaders[i], pHeaders[i + 1]);
+        }
+        final Path jar = directory.resolve(pName);
+        try (final OutputStream out = newOutputStream(jar)) {
+            new JarOutputStream(out, manifest).close();
+        }
+        return jar;
+    }
+
+    @Test
+    public void canonicalVersions() {
+        assertEquals("1.0.0", ManifestHeaders.version("1.0"));
+        assertEquals("1.0.0", ManifestHeaders.version(" 1.0.0. "));
+        assertEquals("1.2.3.beta", ManifestHeaders.version("1.2.3.beta"));
+        assertEquals("0.0.0", ManifestHeaders.version(null));
+        assertEquals("invalid", ManifestHeaders.version("invalid"));
+    }
+
+    @Test
+    public void skipsNonBundlesAndDeduplicatesByCanonicalVersion() throws IOException {
+        final Path first = jar("a.jar", "Bundle-SymbolicName", "com.example.a;singleton:=true", "Bundle-Version", "1.0");
+        jar("b.jar", "Bundle-SymbolicName", "com.example.a", "Bundle-Version", "1.0.0.");
+        final Path other = jar("c.jar", "Bundle-SymbolicName", "com.example.a", "Bundle-Version", "1.0.1");
+        jar("d.jar");
+
+        assertEquals(asList(first, other), BundleDirectoryScanner.scan(directory));
+    }
+
+    @Test
+    public void ordersExportersBeforeImporters() throws IOException {
+        final Path client = jar("a-client.jar", "Bundle-SymbolicName", "com.example.client",
+                "Import-Package", "com.example.api;version=\"[1,2)\",com.example.util");
+        final Path api = jar("b-api.jar", "Bundle-SymbolicName", "com.example.api",
+                "Export-Package", "com.example.api;version=1.0", "Import-Package", "com.example.util");
+        final Path util = jar("c-util.jar", "Bundle-SymbolicName", "com.example.util",
+                "Export-Package", "com.example.util");
+
+        final List<Path> ordered = BundleDirectoryScanner.scan(directory);
+        assertEquals(asList(util, api, client), ordered);
+    }
+}
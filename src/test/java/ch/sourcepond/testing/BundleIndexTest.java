@@ -0,0 +1,143 @@
+package ch.sourcepond.testing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.System.currentTimeMillis;
+import static java.nio.file.Files.createFile;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.size;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the framing, truncation, compaction and replacement detection of
+ * {@link BundleIndex}.
+ */
+public class BundleIndexTest {
+    private static final long MAX_SIZE = 1024L * 1024L;
+    private static final long MAX_AGE = 60_000L;
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        directory = createTempDirectory("bundle-index-test");
+        file = directory.resolve("bundles.idx");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (final DirectoryStream<Path> stream = newDirectoryStream(directory)) {
+            for (final Path child : stream) {
+                delete(child);
+            }
+        }
+        delete(directory);
+    }
+
+    private BundleIndex newIndex() {
+        return new BundleIndex(file, MAX_SIZE, MAX_AGE);
+    }
+
+    private static Map<String, BundleIndex.Entry> entry(final String pKey, final String pLocation, final long pTimestamp) {
+        return singletonMap(pKey, new BundleIndex.Entry(pLocation, pTimestamp));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final long timestamp = currentTimeMillis();
+        final Map<String, BundleIndex.Entry> entries = new LinkedHashMap<>();
+        entries.put("a", new BundleIndex.Entry("mvn:ch.sourcepond/a/1.0", timestamp));
+        entries.put("b", new BundleIndex.Entry("mvn:ch.sourcepond/b/1.0", timestamp));
+        newIndex().append(entries);
+
+        final BundleIndex index = newIndex();
+        assertEquals("mvn:ch.sourcepond/a/1.0", index.get("a").location);
+        assertEquals("mvn:ch.sourcepond/b/1.0", index.get("b").location);
+        assertEquals(timestamp, index.get("b").timestamp);
+        assertNull(index.get("c"));
+    }
+
+    @Test
+    public void tornTailIsIgnoredAndTruncated() throws IOException {
+        final long timestamp = currentTimeMillis();
+        final BundleIndex writer = newIndex();
+        writer.append(entry("a", "mvn:a", timestamp));
+        try (final FileChannel channel = FileChannel.open(file, APPEND)) {
+            // Header of a record whose body is incomplete
+            final ByteBuffer torn = ByteBuffer.allocate(10);
+            torn.putInt(64).putInt(0);
+            torn.flip();
+            channel.write(torn);
+        }
+
+        final BundleIndex reader = newIndex();
+        assertEquals("mvn:a", reader.get("a").location);
+        assertNull(reader.get("b"));
+
+        writer.append(entry("b", "mvn:b", timestamp));
+        assertEquals("mvn:b", reader.get("b").location);
+
+        final Path reference = directory.resolve("reference.idx");
+        final BundleIndex expected = new BundleIndex(reference, MAX_SIZE, MAX_AGE);
+        expected.append(entry("a", "mvn:a", timestamp));
+        expected.append(entry("b", "mvn:b", timestamp));
+        assertEquals(size(reference), size(file));
+    }
+
+    @Test
+    public void compactionDropsExpiredAndMissingEntries() throws IOException {
+        final long now = currentTimeMillis();
+        final Path present = createFile(directory.resolve("present.jar"));
+        final Map<String, BundleIndex.Entry> entries = new LinkedHashMap<>();
+        entries.put("expired", new BundleIndex.Entry("mvn:expired", now - 2 * MAX_AGE));
+        entries.put("missing", new BundleIndex.Entry(directory.resolve("missing.jar").toUri().toString(), now));
+        entries.put("present", new BundleIndex.Entry(present.toUri().toString(), now));
+        final BundleIndex index = newIndex();
+        index.append(entries);
+
+        // The expired record triggers the compaction
+        index.append(entry("added", "mvn:added", now));
+
+        final BundleIndex reader = newIndex();
+        assertNull(reader.get("expired"));
+        assertNull(reader.get("missing"));
+        assertNotNull(reader.get("present"));
+        assertNotNull(reader.get("added"));
+    }
+
+    @Test
+    public void secondInstanceSeesAppendsAndReplacement() throws IOException {
+        final long now = currentTimeMillis();
+        final BundleIndex writer = newIndex();
+        final BundleIndex reader = newIndex();
+        final Map<String, BundleIndex.Entry> entries = new LinkedHashMap<>();
+        entries.put("kept", new BundleIndex.Entry("mvn:kept", now));
+        entries.put("expired", new BundleIndex.Entry("mvn:expired", now - 2 * MAX_AGE));
+        writer.append(entries);
+        assertEquals("mvn:expired", reader.get("expired").location);
+
+        writer.append(entry("added", "mvn:added", now));
+        assertEquals("mvn:added", reader.get("added").location);
+        assertEquals("mvn:kept", reader.get("kept").location);
+        assertNull(reader.get("expired"));
+
+        writer.append(entry("later", "mvn:later", now));
+        assertEquals("mvn:later", reader.get("later").location);
+    }
+}
@@ -0,0 +1,107 @@
+package ch.sourcepond.testing;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests which classes {@link ClassDependencies#collect(Class)} follows.
+ */
+public class ClassDependenciesTest {
+
+	static final class Standalone {
+
+		String value() {
+			return "standalone";
+		}
+	}
+
+	static final class DescriptorOnly {
+	}
+
+	static final class DescriptorUser {
+
+		String accept(final DescriptorOnly pValue) {
+			return "descriptor";
+		}
+	}
+
+	static final class Broken {
+	}
+
+	static final class BrokenUser {
+
+		Object create() {
+			return new Broken();
+		}
+	}
+
+	/**
+	 * Defines this class and its nested classes again with the protection
+	 * domain of this class, but fails to load {@link Broken}, although its
+	 * class-file is present.
+	 */
+	private static final class BrokenLoader extends ClassLoader {
+
+		BrokenLoader() {
+			super(ClassDependenciesTest.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(final String pName, final boolean pResolve) throws ClassNotFoundException {
+			if (Broken.class.getName().equals(pName)) {
+				throw new NoClassDefFoundError(pName);
+			}
+			if (!pName.startsWith(ClassDependenciesTest.class.getName())) {
+				return super.loadClass(pName, pResolve);
+			}
+			synchronized (getClassLoadingLock(pName)) {
+				Class<?> cl = findLoadedClass(pName);
+				if (cl == null) {
+					try (final InputStream in = getResourceAsStream(pName.replace('.', '/') + ".class")) {
+						if (in == null) {
+							throw new ClassNotFoundException(pName);
+						}
+						final byte[] classFile = ClassFiles.bytes(in);
+						cl = defineClass(pName, classFile, 0, classFile.length,
+								ClassDependenciesTest.class.getProtectionDomain());
+					} catch (final IOException e) {
+						throw new ClassNotFoundException(pName, e);
+					}
+				}
+				return cl;
+			}
+		}
+	}
+
+	@Test
+	public void nestedClassDoesNotCollectEnclosingClass() {
+		assertEquals(singleton(Standalone.class), ClassDependencies.collect(Standalone.class));
+	}
+
+	@Test
+	public void enclosingClassReferencedByOtherClassIsCollected() {
+		final Set<Class<?>> collected = ClassDependencies.collect(EnclosingFixture.Nested.class);
+		assertTrue(collected.contains(EnclosingFixtureUser.class));
+		assertTrue(collected.contains(EnclosingFixture.class));
+	}
+
+	@Test
+	public void descriptorOnlyReferenceIsCollected() {
+		final Set<Class<?>> collected = ClassDependencies.collect(DescriptorUser.class);
+		assertTrue(collected.contains(DescriptorOnly.class));
+		assertFalse(collected.contains(ClassDependenciesTest.class));
+	}
+
+	@Test(expected = AssertionError.class)
+	public void presentButUnloadableClassFails() throws Exception {
+		ClassDependencies.collect(Class.forName(BrokenUser.class.getName(), false, new BrokenLoader()));
+	}
+}
@@ -0,0 +1,27 @@
+package ch.sourcepond.testing;
+
+/**
+ * Enclosing class which is only referenced by {@link EnclosingFixtureUser},
+ * never directly by its nested class.
+ */
+final class EnclosingFixture {
+
+	private EnclosingFixture() {
+		// No instances
+	}
+
+	static int value() {
+		return 42;
+	}
+
+	/**
+	 * Root of the closure; references its enclosing class only through the
+	 * {@code InnerClasses} attribute.
+	 */
+	static final class Nested {
+
+		int value() {
+			return EnclosingFixtureUser.value();
+		}
+	}
+}
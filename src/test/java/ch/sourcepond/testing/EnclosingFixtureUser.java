@@ -0,0 +1,15 @@
+package ch.sourcepond.testing;
+
+/**
+ * References {@link EnclosingFixture} directly.
+ */
+final class EnclosingFixtureUser {
+
+	private EnclosingFixtureUser() {
+		// No instances
+	}
+
+	static int value() {
+		return EnclosingFixture.value();
+	}
+}
@@ -0,0 +1,98 @@
+package ch.sourcepond.testing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that {@link JarNormalizer} produces reproducible, stored jars whose
+ * manifest can still be read by {@link JarInputStream}.
+ */
+public class JarNormalizerTest {
+    private static final String SYMBOLIC_NAME = "ch.sourcepond.testing.normalized";
+
+    private static byte[] jar(final long pTime, final String... pNames) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", SYMBOLIC_NAME);
+        manifest.getMainAttributes().putValue("Bnd-LastModified", String.valueOf(pTime));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            for (final String name : pNames) {
+                final ZipEntry entry = new ZipEntry(name);
+                entry.setTime(pTime);
+                jar.putNextEntry(entry);
+                jar.write(("content of " + name).getBytes(UTF_8));
+                jar.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] normalize(final byte[] pJar) throws IOException {
+        try (final InputStream in = JarNormalizer.normalize(new ByteArrayInputStream(pJar))) {
+            return ClassFiles.bytes(in);
+        }
+    }
+
+    @Test
+    public void identicalInputProducesIdenticalOutput() throws IOException {
+        final byte[] jar = jar(1_500_000_000_000L, "a/A.class", "b/B.class");
+        assertArrayEquals(normalize(jar), normalize(jar));
+    }
+
+    @Test
+    public void timestampsAndEntryOrderDoNotAffectOutput() throws IOException {
+        assertArrayEquals(normalize(jar(1_500_000_000_000L, "a/A.class", "b/B.class")),
+                normalize(jar(1_600_000_000_000L, "b/B.class", "a/A.class")));
+    }
+
+    @Test
+    public void entriesAreStoredWithFixedTimestampAndManifestFirst() throws IOException {
+        final List<String> names = new ArrayList<>();
+        Long time = null;
+        try (final ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(
+                normalize(jar(1_500_000_000_000L, "b/B.class", "a/A.class"))))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                assertEquals(entry.getName(), ZipEntry.STORED, entry.getMethod());
+                if (time == null) {
+                    time = entry.getTime();
+                }
+                assertEquals(entry.getName(), (long) time, entry.getTime());
+                names.add(entry.getName());
+            }
+        }
+        assertEquals(asList("META-INF/", JarFile.MANIFEST_NAME, "a/A.class", "b/B.class"), names);
+    }
+
+    @Test
+    public void manifestIsReadableByJarInputStream() throws IOException {
+        try (final JarInputStream in = new JarInputStream(new ByteArrayInputStream(
+                normalize(jar(1_500_000_000_000L, "a/A.class"))))) {
+            final Manifest manifest = in.getManifest();
+            assertNotNull(manifest);
+            assertEquals(SYMBOLIC_NAME, manifest.getMainAttributes().getValue("Bundle-SymbolicName"));
+            assertNull(manifest.getMainAttributes().getValue("Bnd-LastModified"));
+            assertEquals("a/A.class", in.getNextJarEntry().getName());
+        }
+    }
+}